@@ -3,17 +3,20 @@ package uk.ac.ed.inf.mandelbrotmaps;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.math.BigDecimal;
 import java.text.DecimalFormat;
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
-import java.util.concurrent.LinkedBlockingQueue;
 
 import uk.ac.ed.inf.mandelbrotmaps.FractalActivity.FractalType;
-import uk.ac.ed.inf.mandelbrotmaps.colouring.ColouringScheme;
 import uk.ac.ed.inf.mandelbrotmaps.colouring.DefaultColouringScheme;
 import uk.ac.ed.inf.mandelbrotmaps.colouring.JuliaDefaultColouringScheme;
 import uk.ac.ed.inf.mandelbrotmaps.colouring.PsychadelicColouringScheme;
 import uk.ac.ed.inf.mandelbrotmaps.colouring.RGBWalkColouringScheme;
+import uk.ac.ed.inf.mandelbrotmaps.engine.FractalRenderer;
+import uk.ac.ed.inf.mandelbrotmaps.engine.SolidGuessing;
+import uk.ac.ed.inf.mandelbrotmaps.engine.TileCache;
+import uk.ac.ed.inf.mandelbrotmaps.engine.Viewport;
 import android.content.Context;
 import android.graphics.Bitmap;
 import android.graphics.Canvas;
@@ -22,6 +25,7 @@ import android.graphics.Matrix;
 import android.graphics.Paint;
 import android.os.Environment;
 import android.preference.PreferenceManager;
+import android.util.Log;
 import android.view.View;
 import android.widget.Toast;
 
@@ -35,18 +39,16 @@ abstract class AbstractFractalView extends View {
 	final int CRUDE_PIXEL_BLOCK = 3;
 	final int DEFAULT_PIXEL_SIZE = 1;
 	
+	// Block sizes for progressive refinement, coarsest first. Each divides the one before, 
+	// so every level's grid contains the last and no sample is computed twice.
+	final int[] PROGRESSIVE_PIXEL_BLOCKS = {16, 8, 4, 2};
 	
-	// How many iterations, at the very fewest, will we do?
-	int MIN_ITERATIONS = 10;
 	
-	// Constants for iteration number calculations
+	// Constants for iteration number calculations (the rest live in the kernels)
 	private static final double LITTLE_DETAIL_BOOST = 1.5; //Need to bump up the scaling on the little view so it looks better.
-	private static final double DETAIL_DIVISOR = 50;
 	public static final double DEFAULT_DETAIL_LEVEL = 15;
 	public static final double ITERATIONSCALING_MIN = 0.01;
 	public static final double ITERATIONSCALING_MAX = 100;
-	double ITERATION_BASE;
-	double ITERATION_CONSTANT_FACTOR;
 	
 	// Level of detail (abstracted for convenience - dividing by 100 gets the useful number).
 	public double detailLevel = 30;
@@ -71,25 +73,47 @@ abstract class AbstractFractalView extends View {
 	}
 	FractalViewSize fractalViewSize;
 	
-	// Lists for threads, their queues, and their status
-	int noOfThreads = 1;
-	ArrayList<LinkedBlockingQueue<Rendering>> renderQueueList = new ArrayList<LinkedBlockingQueue<Rendering>>();
-	ArrayList<RenderThread> renderThreadList = new ArrayList<RenderThread>();
-	ArrayList<Boolean> rendersComplete = new ArrayList<Boolean>();
+	// Render threads are shared between all views
+	RenderExecutor renderExecutor = RenderExecutor.getInstance();
+	
+	// Has the last detailed render finished?
+	volatile boolean detailedRenderComplete = false;
+	
+	// Moves on every time rendering is stopped, leaving anything scheduled before then stale
+	private volatile int renderGeneration = 0;
 	
 	// What zoom range do we allow? Expressed as ln(pixelSize).
 	double MINZOOM_LN_PIXEL = -3;
 	double MAXZOOM_LN_PIXEL;
 	
 	// Graph area on the complex plane? Stored as double[] {x_min, y_max, width}
+	// x_min and y_max are measured from graphOrigin, which moves along with deep zooms
+	// so that the doubles only ever need to hold the (small) distance from it.
 	double[] graphArea;
 	double[] homeGraphArea;
+	BigDecimal graphOriginX = BigDecimal.ZERO;
+	BigDecimal graphOriginY = BigDecimal.ZERO;
+	
+	// graphOrigin as doubles (see setGraphOrigin()), for per-frame sums that shouldn't allocate BigDecimals
+	double graphOriginXValue = 0;
+	double graphOriginYValue = 0;
 	
-	// Fractal image data
+	// Once the graph area is this many of its own widths from the origin, move the origin to it
+	static final double ORIGIN_REBASE_WIDTHS = 1 << 20;
+	
+	// Fractal image data. The iteration count (and escape fraction) behind each pixel is kept too, so it can be recoloured.
 	int[] fractalPixels;
-	int[] pixelSizes;
+	int[] fractalIterations;
+	float[] fractalFractions;
+	byte[] pixelSizes;
 	Bitmap fractalBitmap;
 	
+	// Which parts of fractalPixels have changed since they were drawn (published to by the render threads),
+	// and what keeps fractalBitmap up to date with them, copying only those parts
+	private final FrameTracker frameChanges = new FrameTracker();
+	private final FramePresenter presenter = new FramePresenter(frameChanges);
+	private final Paint bitmapPaint = new Paint();
+	
 	// Image position on screen (changes while dragging)
 	public float bitmapX = 0;
 	public float bitmapY = 0;
@@ -119,17 +143,21 @@ abstract class AbstractFractalView extends View {
 	// Used to track length of a render
 	private long renderStartTime;
 	
-	// Track number of times bitmap is recreated onDraw (debug info)
+	// Track number of times bitmap is updated onDraw (debug info)
 	int bitmapCreations = 0;
 	
 	boolean drawPin = true;
 	
-	public ColouringScheme colourer = new DefaultColouringScheme();
+	// Does the actual maths - each subclass gives it the right kernel
+	FractalRenderer renderer = new FractalRenderer(null);
 	
-	boolean completedLastRender = false;
+	// Finished renders, kept for when a location is gone back to. One for the whole app - tiles know which fractal they're from.
+	private static TileCache tileCache;
+	
+	// The tile cache gets this fraction of the heap
+	private static final int TILE_CACHE_HEAP_DIVISOR = 8;
 	
-	// Render calculating variables
-	double xMin, yMax, pixelSize;
+	boolean completedLastRender = false;
 	
 	
 	
@@ -161,16 +189,11 @@ abstract class AbstractFractalView extends View {
       	matrix = new Matrix();
       	matrix.reset();
       	
-      	// Create the render threads
-      	noOfThreads = Runtime.getRuntime().availableProcessors();
-      	//Log.d(TAG, "Using " + noOfThreads + " cores");
+      	renderer.setSmoothColouring(Prefs.smoothColouring(getContext()));
       	
-      	for (int i = 0; i < noOfThreads; i++) {
-      		rendersComplete.add(false);
-      		renderQueueList.add(new LinkedBlockingQueue<Rendering>());	
-      		renderThreadList.add(new RenderThread(this, i, noOfThreads));
-      		renderThreadList.get(i).start();
-      	}
+      	// Only the large view keeps pixels between renders, so only it uses the cache
+      	if (fractalViewSize == FractalViewSize.LARGE)
+      		renderer.setTileCache(getTileCache(context));
    }
 
 	
@@ -206,9 +229,14 @@ abstract class AbstractFractalView extends View {
 		// (Re)create pixel grid, if not initialised - or if wrong size.
 		if ((fractalPixels == null) || (fractalPixels.length != getWidth()*getHeight())) {
 			fractalPixels = new int[getWidth() * getHeight()];
-			pixelSizes = new int[getWidth() * getHeight()];
+			fractalIterations = new int[getWidth() * getHeight()];
+			fractalFractions = new float[getWidth() * getHeight()];
+			clearIterations();
+			pixelSizes = new byte[getWidth() * getHeight()];
 			clearPixelSizes();
 			//scheduleNewRenders();
+			if (graphOriginX.signum() == 0 && graphOriginY.signum() == 0)
+				graphArea = alignToPixelGrid(graphArea);
 			setGraphArea(graphArea, true);
 		}
 	
@@ -227,53 +255,97 @@ abstract class AbstractFractalView extends View {
 		
 		//Create new image only if not dragging, zooming, or moving the Julia pin
 		if(controlmode == ControlMode.STATIC && !holdingPin) {
-			bitmapCreations++;
-			fractalBitmap = Bitmap.createBitmap(fractalPixels, 0, getWidth(), getWidth(), getHeight(), Bitmap.Config.RGB_565);
+			bitmapCreations++;
+			fractalBitmap = presenter.present(fractalPixels, getWidth(), getHeight());
 		}
 		
 		//Draw fractal image on screen
-		canvas.drawBitmap(fractalBitmap, matrix, new Paint());
+		canvas.drawBitmap(fractalBitmap, matrix, bitmapPaint);
 		
 		// Brings little view to front if it's hidden but shouldn't be, as can happen.
 		if(parentActivity.showingLittle) parentActivity.addLittleView(false);
 	}
 	
 	
- 	/* Computes pixels of the fractal Bitmap, puts them in array (run by render thread) */
-	public void computeAllPixels(final int pixelBlockSize, final int threadID) {
-		// Nothing to do - stop if called before layout has been sanely set...
-		if (getWidth() <= 0 || graphArea == null)
-			return;
-		
-		int yStart = (getHeight()/2) + (threadID * pixelBlockSize);
-		int yEnd = getHeight() - (noOfThreads - (threadID + 1));
-		boolean showRenderProgress = (threadID == 0);
-		
-		/*if(fractalViewSize == FractalViewSize.LARGE)
-			Log.d("ThreadEnding", "Thread " + threadID + " ending at " + yEnd + "/" + getHeight());*/
-			
-		if (pixelSizes == null)
-			pixelSizes = new int[getWidth() * getHeight()];
+	/* Can a rendering be scheduled yet? Not before layout has been sanely set... */
+	boolean readyToRender() {
+		return getWidth() > 0 && graphArea != null && fractalPixels != null;
+	}
+	
+	
+ 	/* Computes pixels of the fractal Bitmap, puts them in array (run by render threads, 
+	 * any number of which may be working on the same rendering).
+	 * Only reads from the rendering, never the view's current location. */
+	public void computeAllPixels(final Rendering rendering) {
+		boolean showRenderProgress = true;
 		
 		// Don't bother showing render progress on little views
 		if(fractalViewSize == FractalViewSize.LITTLE) showRenderProgress = false;
 		
-		computePixels(
-			pixelBlockSize,
-			showRenderProgress,
-			0, 
-			getWidth(),
-			yStart,
-			yEnd,
-			graphArea[0],
-			graphArea[1],
-			getPixelSize(),
-			true,
-			threadID,
-			noOfThreads
-		);
+		// Each thread redraws after its own share of rows, so together they redraw every linesToDrawAfter
+		int progressInterval = (showRenderProgress ? linesToDrawAfter * renderExecutor.getThreadCount() : 0);
 		
-		postInvalidate();
+		if(rendering.isRestoring()) {
+			// Its one tile - whichever thread gets it reads the disk, so the UI thread doesn't have to
+			if(rendering.getTiles().takeTile() < 0)
+				return;
+			
+			Viewport viewport = rendering.getViewport();
+			if(renderer.loadTiles(viewport, rendering.getMaxIterations(), rendering.getGuessing(), rendering.isSubdivided()) > 0 && 
+					!rendering.isStale() &&
+					renderer.restoreTiles(viewport, rendering.getMaxIterations(), rendering.getGuessing(), rendering.isSubdivided(), 
+							rendering.getFrame(), rendering.getIterations(), rendering.getFractions(), rendering.getPixelSizes()) > 0) {
+				frameChanges.markAll();
+				postInvalidate();
+			}
+			return;
+		}
+		else if(rendering.isRecolouring()) {
+			renderer.recolourPixels(
+				rendering.getTiles(),  // Shared with the other threads
+				rendering.getViewport().getWidth(),
+				rendering.getMaxIterations(),
+				rendering.getIterations(),
+				rendering.getFractions(),
+				rendering.getFrame(),
+				rendering
+			);
+		}
+		else if(rendering.isSubdivided()) {
+			renderer.computePixelsSubdivided(
+				rendering.getViewport(),
+				rendering.getMaxIterations(),
+				rendering.getTiles(),  // Shared with the other threads
+				rendering.getFrame(),
+				rendering.getIterations(),
+				rendering.getFractions(),
+				rendering.getPixelSizes(),
+				rendering,
+				progressInterval
+			);
+		}
+		else {
+			renderer.computePixels(
+				rendering.getViewport(),
+				rendering.getMaxIterations(),
+				rendering.getPixelBlockSize(),
+				rendering.getTiles(),  // Shared with the other threads
+				rendering.getFrame(),
+				rendering.getIterations(),
+				rendering.getFractions(),
+				rendering.getPixelSizes(),
+				rendering.getGuessing(),
+				rendering,
+				progressInterval
+			);
+		}
+		
+		// Recolourings change everything, and renders that didn't show progress haven't said what they changed
+		if(rendering.isRecolouring() || progressInterval == 0)
+			frameChanges.markAll();
+		
+		// Completion is reported by the executor, once every thread on the rendering is done
+		frameChanges.postInvalidates(this);
 	}
 	
 
@@ -296,70 +368,149 @@ abstract class AbstractFractalView extends View {
 			parentActivity.showProgressSpinner();
 		
 		// Reset all the tracking
-		for(int i = 0; i < noOfThreads; i++) {
-			rendersComplete.set(i, false);
-		}
+		detailedRenderComplete = false;
 		
 		renderStartTime = System.currentTimeMillis();
+		renderer.getStatistics().reset();
+		
+		// Anything already seen at this zoom comes straight from the cache, so the renders skip it - 
+		// from memory now, and from the disk on a render thread, before anything's iterated
+		if(fractalViewSize == FractalViewSize.LARGE && readyToRender() && pixelSizes != null) {
+			Viewport viewport = Viewport.fromGraphArea(graphOriginX, graphOriginY, graphArea, getWidth(), getHeight());
+			SolidGuessing guessing = Prefs.solidGuessing(getContext());
+			boolean subdivide = Prefs.performSubdivision(getContext());
+			if(renderer.restoreTiles(viewport, getMaxIterations(), guessing, subdivide, 
+					fractalPixels, fractalIterations, fractalFractions, pixelSizes) > 0) {
+				frameChanges.markAll();
+				postInvalidate();
+			}
+			
+			renderExecutor.submit(this, Rendering.restoring(this, renderGeneration, viewport, getMaxIterations(), subdivide, guessing, 
+					fractalPixels, fractalIterations, fractalFractions, pixelSizes));
+		}
 		
 		
-		//Schedule a crude rendering if needed (not the small view, not a small zoom)
-		if(Prefs.performCrude(getContext()) && fractalViewSize != FractalViewSize.LITTLE && 
+		//Schedule coarse renderings if needed (not the small view, not a small zoom)
+		if(fractalViewSize != FractalViewSize.LITTLE && 
 				(totalScaleFactor < 0.6f || totalScaleFactor == 1.0f || totalScaleFactor > 3.5f || !completedLastRender))  {
-			scheduleRendering(CRUDE_PIXEL_BLOCK);
+			if(Prefs.performProgressive(getContext())) {
+				// Each level only computes the samples the levels before it didn't, finishing with the detailed render
+				for (int pixelBlockSize : PROGRESSIVE_PIXEL_BLOCKS)
+					scheduleRendering(pixelBlockSize);
+			}
+			else if(Prefs.performCrude(getContext())) {
+				scheduleRendering(CRUDE_PIXEL_BLOCK);
+			}
 		}
 		totalScaleFactor = 1.0f; // Needs reset once checked, so that next render doesn't account for it.
 		completedLastRender = false;
 		
 		// Schedule a high-quality rendering
-		scheduleRendering(DEFAULT_PIXEL_SIZE);
+		scheduleRendering(DEFAULT_PIXEL_SIZE, Prefs.performSubdivision(getContext()));
 	}
 	
 	/* Add a rendering of a particular pixel size (crude or detailed) to the queues */
 	void scheduleRendering(int pixelBlockSize) {
-		for (int i = 0; i < noOfThreads; i++) {
-			renderThreadList.get(i).allowRendering();
-			renderQueueList.get(i).add(new Rendering(pixelBlockSize));
-		}
+		scheduleRendering(pixelBlockSize, false);
+	}
+	
+	/* As above, optionally rendering by rectangle subdivision.
+	 * The location, detail and image arrays are fixed now, for the render threads to work from;
+	 * the shared render threads take tiles from it until they run out. */
+	void scheduleRendering(int pixelBlockSize, boolean subdivide) {
+		// Nothing to render into yet - onDraw() will start a render once there is
+		if (!readyToRender())
+			return;
+		
+		if (pixelSizes == null)
+			pixelSizes = new byte[getWidth() * getHeight()];
+		
+		Viewport viewport = Viewport.fromGraphArea(graphOriginX, graphOriginY, graphArea, getWidth(), getHeight());
+		byte[] sizesToTrack = (fractalViewSize == FractalViewSize.LARGE ? pixelSizes : null);  // Only the large view keeps pixels between renders
+		
+		renderExecutor.submit(this, new Rendering(this, renderGeneration, viewport, getMaxIterations(),
+				pixelBlockSize, subdivide, Prefs.solidGuessing(getContext()), fractalPixels, fractalIterations, fractalFractions, sizesToTrack));
+	}
+	
+	/* Add a rendering that just recolours what's been computed so far to the queues */
+	void scheduleRecolouring() {
+		if (!readyToRender())
+			return;
+		
+		Viewport viewport = Viewport.fromGraphArea(graphOriginX, graphOriginY, graphArea, getWidth(), getHeight());
+		renderExecutor.submit(this, Rendering.recolouring(this, renderGeneration, viewport, getMaxIterations(), 
+				fractalPixels, fractalIterations, fractalFractions));
 	}
 	
 	/* Stop all rendering, including planned and current */
 	void stopAllRendering() {
-		for (int i = 0; i < noOfThreads; i++) {
-			renderQueueList.get(i).clear();
-			renderThreadList.get(i).abortRendering();
+		renderGeneration++;
+		renderExecutor.cancel(this);
+	}
+	
+	/* The app's tile cache, made the first time it's asked for - along with its disk tier, 
+	 * so that what was seen last time the app ran can be shown straight away */
+	static synchronized TileCache getTileCache(Context context) {
+		if (tileCache == null) {
+			tileCache = new TileCache(Runtime.getRuntime().maxMemory() / TILE_CACHE_HEAP_DIVISOR);
+			openDiskTileStore(context);
 		}
+		return tileCache;
 	}
 	
+	/* (Re)open the tile cache's disk tier, at the size in the preferences - or remove it, if that's off.
+	 * The files are only touched once a render thread next uses the cache (see TileCache.openDiskStore()). */
+	static synchronized void openDiskTileStore(Context context) {
+		getTileCache(context).openDiskStore(context.getCacheDir(), Prefs.diskCacheBytes(context));
+	}
 	
-	/* Check if any threads are still rendering (returns true if so) */
+	/* The rectangle from (left, top) to (right, bottom), exclusive, is finished and needs drawing again (called by render threads) */
+	void finishedRect(int left, int top, int right, int bottom) {
+		frameChanges.markRect(left, top, right, bottom);
+	}
+	
+	/* Redraw whatever's been finished since the last draw - just those parts of the screen (called by render threads) */
+	void showProgress() {
+		frameChanges.postInvalidates(this);
+	}
+	
+	/* Renderings from any other generation are stale (see Rendering.isStale()) */
+	int getRenderGeneration() {
+		return renderGeneration;
+	}
+	
+	
+	/* Check if the detailed render is still going (returns true if so) */
 	public boolean isRendering() {
-		boolean allComplete = true;
-		
-		for (Boolean b : rendersComplete) {
-			allComplete = allComplete && b;
-		}
-		
-		return !allComplete;
+		return !detailedRenderComplete;
 	}
 	
-	/* Mark a thread as having completed a render (called in computePixels())
-	 * Does nothing if it's a crude render that finished. */
-	public void notifyCompleteRender(int threadID, int pixelBlockSize) {
-		// If detailed render has finished, note that thread has completed.
-		if(pixelBlockSize == DEFAULT_PIXEL_SIZE) {
-			rendersComplete.set(threadID, true);
-		}
+	/* Called by the executor when every thread working on a rendering has finished it.
+	 * Does nothing if it's a crude render or a recolouring that finished. */
+	public void notifyCompleteRender(Rendering rendering) {
+		if(rendering.isRecolouring() || rendering.isRestoring() || rendering.getPixelBlockSize() != DEFAULT_PIXEL_SIZE)
+			return;
+		
+		detailedRenderComplete = true;
 		
-		// If all threads are done and you're the main view, show time.
-		if (!(isRendering()) && fractalViewSize == FractalViewSize.LARGE) {
+		// If you're the main view, show time.
+		if (fractalViewSize == FractalViewSize.LARGE) {
 			completedLastRender = true;
 			
+			// Keep it, for coming back to
+			renderer.storeTiles(rendering.getViewport(), rendering.getMaxIterations(), rendering.getGuessing(), rendering.isSubdivided(), 
+					rendering.getIterations(), rendering.getFractions());
+			
 			//Show time in seconds
 			double time = (double)((System.currentTimeMillis() - renderStartTime))/1000;
 			String renderCompleteMessage = "Rendering time: " + new DecimalFormat("#.##").format(time) + " second" + (time == 1d ? "." : "s.");
 			//Log.d(TAG, renderCompleteMessage);
 			
+			// How much work did cycle detection and the bulb checks save?
+			String statisticsMessage = renderer.getStatistics().toString();
+			Log.d(Constants.TAG, statisticsMessage);
+			renderCompleteMessage += "\n" + statisticsMessage + ".";
+			
 			if(PreferenceManager.getDefaultSharedPreferences(getContext()).getBoolean("SHOW_TIMES", true))
 				parentActivity.showToastOnUIThread(renderCompleteMessage, Toast.LENGTH_SHORT);	
 			
@@ -379,8 +530,8 @@ abstract class AbstractFractalView extends View {
 		// What does each pixel correspond to, on the complex plane?
 		double pixelSize = getPixelSize();
 		
-		// Adjust the Graph Area
-		double[] newGraphArea = graphArea;
+		// Adjust the Graph Area (a copy, so setGraphArea() can still roll back)
+		double[] newGraphArea = graphArea.clone();
 		newGraphArea[0] -= (dragDiffPixelsX * pixelSize);
 		newGraphArea[1] -= -(dragDiffPixelsY * pixelSize);
 		setGraphArea(newGraphArea, false);
@@ -438,16 +589,47 @@ abstract class AbstractFractalView extends View {
 	}
 
 	
-	/* Shift values in pixel array to keep pixels that have already been calculated */
+	/* Shift values in pixel array to keep pixels that have already been calculated.
+	 * Done in place, so a pan allocates nothing, and only the strips it uncovers are cleared to be rendered - 
+	 * unless a render thread could still be writing to the arrays (one that hasn't yet noticed its rendering
+	 * is stale), in which case that thread is left with the old arrays and the view moves on to copies. */
 	public void shiftPixels(int shiftX, int shiftY) {
 		//Log.d(TAG, "Shifting pixels");
 		
 		int height = getHeight();
 		int width = getWidth();
-		int[] newPixels = new int[height * width];
-		int[] newSizes = new int[height * width];
-		for (int i = 0; i < newSizes.length; i++) newSizes[i] = 1000;
 		
+		if (renderExecutor.isBusyWith(this)) {
+			fractalPixels = fractalPixels.clone();
+			fractalIterations = fractalIterations.clone();
+			fractalFractions = fractalFractions.clone();
+			pixelSizes = pixelSizes.clone();
+		}
+		
+		shiftInPlace(fractalPixels, width, height, shiftX, shiftY);
+		shiftInPlace(fractalIterations, width, height, shiftX, shiftY);
+		shiftInPlace(fractalFractions, width, height, shiftX, shiftY);
+		shiftInPlace(pixelSizes, width, height, shiftX, shiftY);
+		frameChanges.markAll();
+		
+		//Rows uncovered above or below
+		int top = Math.max(0, Math.min(height, shiftY));
+		int bottom = Math.min(height, Math.max(0, height + shiftY));
+		clearPixels(0, top * width);
+		clearPixels(bottom * width, height * width);
+		
+		//Columns uncovered at either side, in the rows between
+		int left = Math.max(0, Math.min(width, shiftX));
+		int right = Math.min(width, Math.max(0, width + shiftX));
+		for (int y = top; y < bottom; y++) {
+			clearPixels(y * width, (y * width) + left);
+			clearPixels((y * width) + right, (y + 1) * width);
+		}
+	}
+	
+	/* Move a width x height image, in an array of any type, by (shiftX, shiftY) within the same array.
+	 * Whatever's uncovered is left as it was. */
+	private static void shiftInPlace(Object array, int width, int height, int shiftX, int shiftY) {
 		//Choose rows to copy from
 		int rowNum = height - Math.abs(shiftY);
 		int origStartRow = (shiftY < 0 ? Math.abs(shiftY) : 0);
@@ -459,21 +641,28 @@ abstract class AbstractFractalView extends View {
 		//Choose columns to copy to
 		int destStartCol = (shiftX < 0 ? 0 : shiftX);
 		
-		//Copy useful parts into new array
-		for (int origY = origStartRow; origY < origStartRow + rowNum; origY++)
-		{
+		if (rowNum <= 0 || colNum <= 0)
+			return;
+		
+		//Moving down, go from the bottom up, so no row is overwritten before it's been moved (arraycopy handles overlap within a row)
+		for (int i = 0; i < rowNum; i++) {
+			int origY = (shiftY > 0 ? origStartRow + rowNum - 1 - i : origStartRow + i);
 			int destY = origY + shiftY;
-			System.arraycopy(fractalPixels, (origY * width) + origStartCol, 
-							 newPixels, (destY * width) + destStartCol,
+			System.arraycopy(array, (origY * width) + origStartCol, 
+							 array, (destY * width) + destStartCol,
 							 colNum);
-			System.arraycopy(pixelSizes, (origY * width) + origStartCol, 
-					 newSizes, (destY * width) + destStartCol,
-					 colNum);
 		}
+	}
+	
+	/* Reset pixels [from, to) to nothing calculated */
+	private void clearPixels(int from, int to) {
+		if (from >= to)
+			return;
 		
-		//Set values
-		fractalPixels = newPixels;
-		pixelSizes = newSizes;
+		Arrays.fill(fractalPixels, from, to, 0);
+		Arrays.fill(fractalIterations, from, to, FractalRenderer.NOT_ITERATED);
+		Arrays.fill(fractalFractions, from, to, 0);
+		Arrays.fill(pixelSizes, from, to, FractalRenderer.UNSET_PIXEL_SIZE);
 	}
 	
 	
@@ -550,10 +739,14 @@ abstract class AbstractFractalView extends View {
 		
 		stopAllRendering();
 		
+		snapZoomToScaleLadder();
+		
 		drawPin = false;
 		setDrawingCacheEnabled(true);
-		fractalBitmap = Bitmap.createBitmap(getDrawingCache());
-		fractalBitmap.getPixels(fractalPixels, 0, getWidth(), 0, 0, getWidth(), getHeight());
+		getDrawingCache().getPixels(fractalPixels, 0, getWidth(), 0, 0, getWidth(), getHeight());
+		frameChanges.markAll();
+		fractalBitmap = presenter.present(fractalPixels, getWidth(), getHeight());
+		clearIterations();  // Just a scaled picture now - nothing to recolour it from
 		setDrawingCacheEnabled(false);
 		drawPin = true;
 		
@@ -564,6 +757,34 @@ abstract class AbstractFractalView extends View {
 		matrix.reset();
 	}
 	
+	/* Zoom about the centre to the nearest pixel size on the tile cache's scale ladder, lined up with whole
+	 * pixels, so that coming back to this zoom later finds the same tiles. The image on screen is scaled to match. */
+	private void snapZoomToScaleLadder() {
+		double pixelSize = getPixelSize();
+		if (pixelSize == 0.0) return;
+		
+		double snappedPixelSize = TileCache.snapPixelSize(pixelSize);
+		if (snappedPixelSize == pixelSize) return;
+		
+		double centreX = graphArea[0] + (getWidth() / 2.0) * pixelSize;
+		double centreY = graphArea[1] - (getHeight() / 2.0) * pixelSize;
+		
+		double[] newGraphArea = new double[3];
+		newGraphArea[0] = Math.rint((centreX - (getWidth() / 2.0) * snappedPixelSize) / snappedPixelSize) * snappedPixelSize;
+		newGraphArea[1] = Math.rint((centreY + (getHeight() / 2.0) * snappedPixelSize) / snappedPixelSize) * snappedPixelSize;
+		newGraphArea[2] = snappedPixelSize * getWidth();
+		
+		setGraphArea(newGraphArea, false);
+		
+		// Only scale the image if the new zoom was in range
+		if (getPixelSize() != pixelSize) {
+			scaleFactor = (float)(pixelSize / snappedPixelSize);
+			midX = getWidth() / 2.0f;
+			midY = getHeight() / 2.0f;
+			invalidate();
+		}
+	}
+	
 	
 	/* Returns zoom level, in range 0..ZOOM_SLIDER_SCALING	(logarithmic scale) */
 	public int getZoomLevel() {
@@ -600,20 +821,14 @@ abstract class AbstractFractalView extends View {
 	 * ie, maxIterations ~ a(b^x)
 	 * a, b determined empirically for Mandelbrot/Julia curves
 	 * The contrast slider (not implemented yet, was in the original web applet)
-	 *  allows adjustment of the magnitude of a, with a log scale. */
+	 *  allows adjustment of the magnitude of a, with a log scale. 
+	 * The curve itself is in the kernel; this just supplies the detail level. */
 	int getMaxIterations() {
-		// How many iterations to perform?
-		double absLnPixelSize = Math.abs(Math.log(getPixelSize()));
-		
 		double detailForCalc = parentActivity.getDetailFromPrefs(fractalViewSize);
 		if(fractalViewSize == FractalViewSize.LITTLE)
 			detailForCalc *= LITTLE_DETAIL_BOOST;
 		
-		double dblIterations = (detailForCalc/DETAIL_DIVISOR) * ITERATION_CONSTANT_FACTOR * Math.pow(ITERATION_BASE, absLnPixelSize);
-		
-		int iterationsToPerform = (int)dblIterations;
-		
-		return Math.max(iterationsToPerform, MIN_ITERATIONS);
+		return renderer.getMaxIterations(getPixelSize(), detailForCalc);
 	}
 	
 	
@@ -627,7 +842,10 @@ abstract class AbstractFractalView extends View {
 		//Don't bother checking for validity on the little view - zoom never changes
 		if (graphArea != null && fractalViewSize == FractalViewSize.LARGE) {
 			double[] initialGraphArea = graphArea;
+			BigDecimal initialOriginX = graphOriginX;
+			BigDecimal initialOriginY = graphOriginY;
 			graphArea = newGraphArea;
+			rebaseGraphOrigin();
 			
 			// Check for sane zoom level.
 			if (saneZoomLevel()) {
@@ -642,15 +860,54 @@ abstract class AbstractFractalView extends View {
 				// Zoom level is out of bounds, just roll back.
 				hasPassedMaxDepth = true;
 				graphArea = initialGraphArea;
+				setGraphOrigin(initialOriginX, initialOriginY);
 			}
 		}
 		else {
 			// There is no predefined graphArea; we'll have to accept whatever newGraphArea is.
 			graphArea = newGraphArea;
+			rebaseGraphOrigin();
 			if(newRender) scheduleNewRenders();
 		}
 	}
 	
+	/* Set a graph area given in absolute coordinates (bookmarks, saved state, home) */
+	void setAbsoluteGraphArea(double[] newGraphArea, boolean newRender) {
+		setGraphOrigin(BigDecimal.ZERO, BigDecimal.ZERO);
+		setGraphArea(newGraphArea, newRender);
+	}
+	
+	/* Move the origin the graph area is measured from, keeping its double values in step */
+	private void setGraphOrigin(BigDecimal originX, BigDecimal originY) {
+		graphOriginX = originX;
+		graphOriginY = originY;
+		graphOriginXValue = originX.doubleValue();
+		graphOriginYValue = originY.doubleValue();
+	}
+	
+	/* The graph area in absolute coordinates - only as precise as a double, so deep zooms lose some accuracy */
+	public double[] getAbsoluteGraphArea() {
+		if (graphArea == null) return null;
+		
+		double[] absoluteGraphArea = new double[3];
+		absoluteGraphArea[0] = graphOriginX.add(new BigDecimal(graphArea[0])).doubleValue();
+		absoluteGraphArea[1] = graphOriginY.add(new BigDecimal(graphArea[1])).doubleValue();
+		absoluteGraphArea[2] = graphArea[2];
+		return absoluteGraphArea;
+	}
+	
+	/* If the graph area has wandered far from the origin (relative to its size), 
+	 * move the origin to its corner before the doubles run out of precision */
+	private void rebaseGraphOrigin() {
+		if (graphArea == null) return;
+		
+		double limit = ORIGIN_REBASE_WIDTHS * graphArea[2];
+		if (Math.abs(graphArea[0]) > limit || Math.abs(graphArea[1]) > limit) {
+			setGraphOrigin(graphOriginX.add(new BigDecimal(graphArea[0])), graphOriginY.add(new BigDecimal(graphArea[1])));
+			graphArea = new double[] {0, 0, graphArea[2]};
+		}
+	}
+	
 	/* Compute length of 1 pixel on the complex plane */
 	double getPixelSize() {
 		// Nothing to do - cannot compute a sane pixel size
@@ -672,10 +929,19 @@ abstract class AbstractFractalView extends View {
 		
 		// Default graph area		
 		if (parentActivity.fractalType == FractalType.MANDELBROT) {
-			setGraphArea(new MandelbrotJuliaLocation().defaultMandelbrotGraphArea, true);
+			setAbsoluteGraphArea(alignToPixelGrid(new MandelbrotJuliaLocation().defaultMandelbrotGraphArea), true);
 		}
 		else
-			setGraphArea(new MandelbrotJuliaLocation().defaultJuliaGraphArea, true);
+			setAbsoluteGraphArea(alignToPixelGrid(new MandelbrotJuliaLocation().defaultJuliaGraphArea), true);
+	}
+	
+	/* Nudge an (absolute) graph area by under a quarter of a pixel, so the axes fall exactly on the 
+	 * pixel grid - then a symmetric fractal only has half of the image computed, the rest mirrored (see engine.MirrorPlan). */
+	double[] alignToPixelGrid(double[] area) {
+		if (area == null || getWidth() == 0) return area;
+		
+		double halfPixel = area[2] / (double)getWidth() / 2;
+		return new double[] {Math.rint(area[0] / halfPixel) * halfPixel, Math.rint(area[1] / halfPixel) * halfPixel, area[2]};
 	}
 
 	
@@ -751,35 +1017,19 @@ abstract class AbstractFractalView extends View {
 	
 	
 	
-/*-----------------------------------------------------------------------------------*/
-/* Thread handling  */
-/*-----------------------------------------------------------------------------------*/
-	/* Interrupt (and end) the rendering threads, called when activity closing */
-	public void interruptThreads(){
-		for (RenderThread thread : renderThreadList) {
-			thread.interrupt();
-		}
-	}
-	
-	
-	/* Retrieve and remove the next rendering from a queue (used by render threads) */
-	public Rendering getNextRendering(int threadID) throws InterruptedException {
-		return renderQueueList.get(threadID).take();
-	}
-	
-	
-	
 /*-----------------------------------------------------------------------------------*/
 /* Utilities (miscellaneous useful functions)  */
 /*-----------------------------------------------------------------------------------*/
 	/* Clear the sizes array of its current values, so anything new is smaller
-	 * (Fills it with 1000s) */
+	 * (Fills it with FractalRenderer.UNSET_PIXEL_SIZE) */
 	protected void clearPixelSizes() {
-		for (int i = 0; i < pixelSizes.length; i++)
-		{
-			pixelSizes[i] = 1000;
-		}
-	   }
+		Arrays.fill(pixelSizes, FractalRenderer.UNSET_PIXEL_SIZE);
+	}
+	
+	/* Forget the iteration counts behind the current image, so it isn't recoloured */
+	protected void clearIterations() {
+		Arrays.fill(fractalIterations, FractalRenderer.NOT_ITERATED);
+	}
 	
 	/* Stop any rendering and return to "home" position */
 	public void reset(){
@@ -789,6 +1039,9 @@ abstract class AbstractFractalView extends View {
 
 		matrix.reset();
 		fractalPixels = new int[getWidth() * getHeight()];
+		fractalIterations = new int[getWidth() * getHeight()];
+		fractalFractions = new float[getWidth() * getHeight()];
+		clearIterations();
 		clearPixelSizes();
 		canvasHome();
 		
@@ -796,7 +1049,7 @@ abstract class AbstractFractalView extends View {
 	}
 	
 	/* Sets to a predetermined spot that takes a while to render (just used for debugging) */
-	public void setToTestLocation()
+	public void setToTestLocation()
 	{	
 		stopAllRendering();
 		
@@ -806,9 +1059,9 @@ abstract class AbstractFractalView extends View {
 		
 		bookmark[0] = -1.631509065569354;
 		bookmark[1] = 0.0008548063308817164;
-		bookmark[2] = 0.0027763525271276013;
+		bookmark[2] = 0.0027763525271276013;
 		
-		setGraphArea(bookmark, true);
+		setAbsoluteGraphArea(bookmark, true);
 	}
 	
 	
@@ -821,20 +1074,39 @@ abstract class AbstractFractalView extends View {
 		setGraphArea(graphArea, true);
 	}
 	
+	/* Recolours what's been computed of the current location without iterating it again
+	 * (after a colouring change), then finishes the render off if it wasn't done */
+	public void recolourCurrentLocation() {
+		stopAllRendering();
+		
+		scheduleRecolouring();
+		if(isRendering())
+			scheduleRendering(DEFAULT_PIXEL_SIZE, Prefs.performSubdivision(getContext()));
+	}
+	
 	
 	/* Change the colouring scheme */
 	public void setColouringScheme(String newScheme, boolean reload) {		
 		if(newScheme.equals("MandelbrotDefault"))
-			colourer = new DefaultColouringScheme();
+			renderer.setColouringScheme(new DefaultColouringScheme());
 		else if(newScheme.equals("JuliaDefault"))
-			colourer = new JuliaDefaultColouringScheme();
+			renderer.setColouringScheme(new JuliaDefaultColouringScheme());
 		else if(newScheme.equals("RGBWalk"))
-			colourer = new RGBWalkColouringScheme();
+			renderer.setColouringScheme(new RGBWalkColouringScheme());
 		else if(newScheme.equals("Psychadelic"))
-			colourer = new PsychadelicColouringScheme();
+			renderer.setColouringScheme(new PsychadelicColouringScheme());
 		
 		if(reload)
-			reloadCurrentLocation();
+			recolourCurrentLocation();
+	}
+	
+	
+	/* Turn smooth colouring on or off - every pixel's escape fraction is kept, so it's just a recolour */
+	public void setSmoothColouring(boolean smooth, boolean reload) {
+		renderer.setSmoothColouring(smooth);
+		
+		if(reload)
+			recolourCurrentLocation();
 	}
 	
 	
@@ -843,102 +1115,4 @@ abstract class AbstractFractalView extends View {
 /* Abstract methods */
 /*-----------------------------------------------------------------------------------*/
 	abstract void loadLocation(MandelbrotJuliaLocation mjLocation);
-	void computePixels(
-			int pixelBlockSize,  // Pixel "blockiness"
-			final boolean showRenderingProgress,  // Call newPixels() on outputMIS as we go?
-			final int xPixelMin,
-			final int xPixelMax,
-			final int yPixelMin,
-			final int yPixelMax,
-			final double xMin,
-			final double yMax,
-			final double pixelSize,
-			final boolean allowInterruption,  // Shall we abort if renderThread signals an abort?
-			final int threadID,
-			final int noOfThreads
-		) {
-RenderThread callingThread = renderThreadList.get(threadID);
-		
-		int maxIterations = getMaxIterations();
-		int imgWidth = xPixelMax - xPixelMin;
-		
-		int xPixel = 0, yPixel = 0, yIncrement = 0;
-		int colourCodeHex;
-		int pixelBlockA, pixelBlockB;
-		
-		this.xMin = xMin;
-		this.yMax = yMax;
-		this.pixelSize = pixelSize;
-
-		double x0 = 0, y0 = 0;
-		
-		int pixelIncrement = pixelBlockSize * noOfThreads;
-		int originalIncrement = pixelIncrement;
-		
-		int loopCount = 0;
-		
-		
-		for (yIncrement = yPixelMin; yPixel < yPixelMax+(noOfThreads*pixelBlockSize) ; yIncrement += pixelIncrement) {			
-			yPixel = yIncrement;
-			
-			pixelIncrement = (loopCount * originalIncrement);
-			if(loopCount % 2 == 0)
-				pixelIncrement*=-1;
-			loopCount++;
-			
-			//If we've exceeded the bounds of the image (as can happen with many threads), exit the loop.
-			if(((imgWidth * (yPixel+pixelBlockSize - 1)) + xPixelMax) > pixelSizes.length || 
-					 yPixel < 0) {
-				continue;
-			}
-			
-			// Detect rendering abortion.
-			if (allowInterruption && (callingThread.abortSignalled())) {
-				return;
-			}
-			
-			// Set y0 (im part of c)
-			//y0 = yMax - ( (double)yPixel * pixelSize );			
-		
-			
-			for (xPixel=xPixelMin; xPixel<xPixelMax+1-pixelBlockSize; xPixel+=pixelBlockSize) {					
-				//Check to see if this pixel is already iterated to the necessary block size
-				if(fractalViewSize == FractalViewSize.LARGE && pixelSizes[(imgWidth*yPixel) + xPixel] <= pixelBlockSize) {
-					continue;
-				}
-				
-				colourCodeHex = pixelInSet(xPixel, yPixel, maxIterations);
-				
-				//Note that the pixel being calculated has been calculated in full (upper right of a block)
-				if(fractalViewSize == FractalViewSize.LARGE)
-					pixelSizes[(imgWidth*yPixel) + (xPixel)] = DEFAULT_PIXEL_SIZE;
-				
-				// Save colour info for this pixel. int, interpreted: 0xAARRGGBB
-				int p = 0;
-				for (pixelBlockA=0; pixelBlockA<pixelBlockSize; pixelBlockA++) {
-					for (pixelBlockB=0; pixelBlockB<pixelBlockSize; pixelBlockB++) {
-						if(fractalViewSize == FractalViewSize.LARGE) {
-							if(p != 0) {
-								pixelSizes[imgWidth*(yPixel+pixelBlockB) + (xPixel+pixelBlockA)] = pixelBlockSize;
-							}
-							p++;
-						}
-						if(fractalPixels == null) return;
-						fractalPixels[imgWidth*(yPixel+pixelBlockB) + (xPixel+pixelBlockA)] = colourCodeHex;
-					}
-				}
-			}
-			// Show thread's work in progress
-			if ((showRenderingProgress) && (loopCount % linesToDrawAfter == 0)) 
-				{
-					postInvalidate();
-				}
-		}
-		
-		postInvalidate();
-		notifyCompleteRender(threadID, pixelBlockSize);
-	}
-	abstract int pixelInSet(int xPixel, int yPixel, int maxIterations);
 }
-
-
@@ -155,17 +155,15 @@ public class FractalActivity extends Activity implements OnTouchListener, OnScal
 		gestureDetector = new ScaleGestureDetector(this, this);
 	}
 
-/* When destroyed, stop rendering and kill all the threads,
-	* so references aren't kept.
+/* When destroyed, stop rendering, so the shared render threads
+	* don't keep references to the views.
     */
    @Override
    protected void onDestroy() {
 	   super.onDestroy();
 	   fractalView.stopAllRendering();
-	   fractalView.interruptThreads();
 	   if (littleFractalView != null) {
 		   littleFractalView.stopAllRendering();
-		   littleFractalView.interruptThreads();
 	   }
 	   
 	   
@@ -196,10 +194,10 @@ public class FractalActivity extends Activity implements OnTouchListener, OnScal
    protected void onSaveInstanceState(Bundle outState) {
 	   super.onSaveInstanceState(outState);
 	   
-	   outState.putDoubleArray(PREVIOUS_MAIN_GRAPH_AREA, fractalView.graphArea);
+	   outState.putDoubleArray(PREVIOUS_MAIN_GRAPH_AREA, fractalView.getAbsoluteGraphArea());
 	   
 	   if(showingLittle) {
-		   outState.putDoubleArray(PREVIOUS_LITTLE_GRAPH_AREA, littleFractalView.graphArea);
+		   outState.putDoubleArray(PREVIOUS_LITTLE_GRAPH_AREA, littleFractalView.getAbsoluteGraphArea());
 	   }
 	   
 	   if(fractalType == FractalType.MANDELBROT) {
@@ -246,7 +244,7 @@ public class FractalActivity extends Activity implements OnTouchListener, OnScal
    public void finish() {
 	   if(fractalType == FractalType.JULIA) {
 		   double[] juliaParams = ((JuliaFractalView)fractalView).getJuliaParam();
-		   double[] currentGraphArea = fractalView.graphArea;
+		   double[] currentGraphArea = fractalView.getAbsoluteGraphArea();
 		   
 		   Intent result = new Intent();
 		   result.putExtra("JuliaParams", juliaParams);
@@ -362,7 +360,7 @@ public class FractalActivity extends Activity implements OnTouchListener, OnScal
 	   relativeLayout.removeView(borderView);
 	   relativeLayout.removeView(littleFractalView);
 	   
-	   littleFractalView.interruptThreads();
+	   littleFractalView.stopAllRendering();
 	   
 	   showingLittle = false;
    }
@@ -813,12 +811,12 @@ public class FractalActivity extends Activity implements OnTouchListener, OnScal
 		Bundle bundle = new Bundle();
 		bundle.putString("FractalType", FractalType.JULIA.toString());
 		bundle.putBoolean("ShowLittleAtStart", true);
-		bundle.putDoubleArray("LittleMandelbrotLocation", fractalView.graphArea);
+		bundle.putDoubleArray("LittleMandelbrotLocation", fractalView.getAbsoluteGraphArea());
 		
 		bundle.putDouble("JULIA_X", juliaParams[0]);
 		bundle.putDouble("JULIA_Y", juliaParams[1]);
 		bundle.putDoubleArray("JuliaParams", juliaParams);
-		bundle.putDoubleArray("JuliaGraphArea", littleFractalView.graphArea);
+		bundle.putDoubleArray("JuliaGraphArea", littleFractalView.getAbsoluteGraphArea());
 		
 		intent.putExtras(bundle);
 		startActivityForResult(intent, RETURN_FROM_JULIA);
@@ -877,6 +875,30 @@ public class FractalActivity extends Activity implements OnTouchListener, OnScal
 				((MandelbrotFractalView)littleFractalView).setPinColour(newColour);
 			}
 		}
+		
+		else if(changedPref.equals(Prefs.BULB_CHECK_OPTION)) {
+			boolean checkBulbs = prefs.getBoolean(changedPref, true);
+			
+			if(fractalType == FractalType.MANDELBROT) {
+				((MandelbrotFractalView)fractalView).setBulbChecking(checkBulbs);
+			}
+			else if (showingLittle) {
+				((MandelbrotFractalView)littleFractalView).setBulbChecking(checkBulbs);
+			}
+		}
+		
+		else if(changedPref.equals(Prefs.SMOOTH_OPTION)) {
+			boolean smooth = prefs.getBoolean(changedPref, true);
+			
+			fractalView.setSmoothColouring(smooth, true);
+			if (showingLittle) {
+				littleFractalView.setSmoothColouring(smooth, true);
+			}
+		}
+		
+		else if(changedPref.equals(Prefs.DISK_CACHE_OPTION)) {
+			AbstractFractalView.openDiskTileStore(getApplicationContext());
+		}
 	}
 
 	
@@ -953,15 +975,15 @@ public class FractalActivity extends Activity implements OnTouchListener, OnScal
 		if(fractalType == FractalType.MANDELBROT) {
 			if(littleFractalView != null) {
 				Log.d(TAG, "Showing little...");
-				bookmark = new MandelbrotJuliaLocation(fractalView.graphArea, littleFractalView.graphArea, 
+				bookmark = new MandelbrotJuliaLocation(fractalView.getAbsoluteGraphArea(), littleFractalView.getAbsoluteGraphArea(), 
 															((MandelbrotFractalView)fractalView).currentJuliaParams);
 			}
 			else {
-				bookmark = new MandelbrotJuliaLocation(fractalView.graphArea);
+				bookmark = new MandelbrotJuliaLocation(fractalView.getAbsoluteGraphArea());
 			}
 		}
 		else {
-			bookmark = new MandelbrotJuliaLocation(littleFractalView.graphArea, fractalView.graphArea, 
+			bookmark = new MandelbrotJuliaLocation(littleFractalView.getAbsoluteGraphArea(), fractalView.getAbsoluteGraphArea(), 
 														((MandelbrotFractalView)littleFractalView).currentJuliaParams);
 		}
 		
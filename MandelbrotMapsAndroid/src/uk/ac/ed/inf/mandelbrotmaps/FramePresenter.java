@@ -0,0 +1,44 @@
+package uk.ac.ed.inf.mandelbrotmaps;
+
+import android.graphics.Bitmap;
+
+/* Gets a view's frame onto the screen. Keeps one mutable bitmap, and copies into it only the parts
+ * of the frame its FrameTracker says have changed since it was last drawn, rather than making a
+ * whole new bitmap each time - which, during a render, is every few rows. Only used on the UI thread. */
+class FramePresenter {
+	
+	private final FrameTracker changes;
+	private Bitmap bitmap;
+	
+	// The frame last copied from - a different one (new arrays after a reset, say) is copied in full
+	private int[] lastFrame;
+	
+	// {left, top, right, bottom} of each run of changed rows, as it's taken from the tracker
+	private final int[] run = new int[4];
+	
+	FramePresenter(FrameTracker changes) {
+		this.changes = changes;
+	}
+	
+	/* The bitmap, brought up to date with frame */
+	Bitmap present(int[] frame, int width, int height) {
+		if (bitmap == null || bitmap.getWidth() != width || bitmap.getHeight() != height) {
+			bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.RGB_565);
+			changes.resize(width, height);
+		}
+		
+		// Take what's changed before copying, so anything finished during the copy is left for next time
+		if (changes.takeAll() || frame != lastFrame) {
+			lastFrame = frame;
+			bitmap.setPixels(frame, 0, width, 0, 0, width, height);
+			return bitmap;
+		}
+		
+		// Copy each run of changed rows as one rectangle
+		int row = 0;
+		while ((row = changes.takeRun(row, run)) >= 0)
+			bitmap.setPixels(frame, (run[1] * width) + run[0], width, run[0], run[1], run[2] - run[0], run[3] - run[1]);
+		
+		return bitmap;
+	}
+}
@@ -0,0 +1,147 @@
+package uk.ac.ed.inf.mandelbrotmaps;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import android.view.View;
+
+/* Which parts of a view's frame have changed since they were last copied to the screen.
+ * Render threads publish each piece of the frame as they finish it; the UI thread takes
+ * what's changed a run of rows at a time (see FramePresenter), each run as one rectangle.
+ * Nothing is locked: each row's changed columns are packed into one long, merged and taken with
+ * atomic operations, which also make a thread's writes to the frame visible to whoever takes the row. */
+class FrameTracker {
+	
+	// left in the high half, right (exclusive) in the low half; nothing changed while left >= right
+	private static final long NOTHING = ((long)Integer.MAX_VALUE << 32);
+	
+	private volatile AtomicLongArray rows = new AtomicLongArray(0);
+	private volatile int width = 0;
+	private final AtomicBoolean everything = new AtomicBoolean(true);
+	
+	/* Start tracking a frame of a new size (UI thread). Everything counts as changed. */
+	void resize(int width, int height) {
+		AtomicLongArray newRows = new AtomicLongArray(height);
+		for (int y = 0; y < height; y++)
+			newRows.set(y, NOTHING);
+		
+		this.width = width;
+		rows = newRows;
+		everything.set(true);
+	}
+	
+	/* The rectangle from (left, top) to (right, bottom), exclusive, has changed. Any part of it may be off the frame. */
+	void markRect(int left, int top, int right, int bottom) {
+		final AtomicLongArray rows = this.rows;
+		left = Math.max(left, 0);
+		right = Math.min(right, width);
+		top = Math.max(top, 0);
+		bottom = Math.min(bottom, rows.length());
+		if (left >= right)
+			return;
+		
+		for (int y = top; y < bottom; y++) {
+			while (true) {
+				long current = rows.get(y);
+				long merged = pack(Math.min(left(current), left), Math.max(right(current), right));
+				if (merged == current || rows.compareAndSet(y, current, merged))
+					break;
+			}
+		}
+	}
+	
+	/* The whole frame has changed */
+	void markAll() {
+		everything.set(true);
+	}
+	
+	
+	/* Has the whole frame changed? Clears that, along with anything marked for individual rows. (UI thread) */
+	boolean takeAll() {
+		if (!everything.getAndSet(false))
+			return false;
+		
+		final AtomicLongArray rows = this.rows;
+		for (int y = 0; y < rows.length(); y++)
+			rows.set(y, NOTHING);
+		return true;
+	}
+	
+	/* Take the first run of changed rows at or below row from, putting the rectangle covering it in
+	 * rect as {left, top, right, bottom}. Returns the row after the run, or -1 if nothing's changed. (UI thread) */
+	int takeRun(int from, int[] rect) {
+		final AtomicLongArray rows = this.rows;
+		final int height = rows.length();
+		
+		// Only this thread empties rows, so one seen with changes in still has them when it's taken
+		int y = from;
+		while (y < height && isEmpty(rows.get(y)))
+			y++;
+		if (y >= height)
+			return -1;
+		
+		long row = rows.getAndSet(y, NOTHING);
+		int left = left(row);
+		int right = right(row);
+		rect[1] = y;
+		
+		// Carry on down while rows keep changing
+		for (y++; y < height && !isEmpty(rows.get(y)); y++) {
+			row = rows.getAndSet(y, NOTHING);
+			left = Math.min(left, left(row));
+			right = Math.max(right, right(row));
+		}
+		
+		rect[0] = left;
+		rect[2] = right;
+		rect[3] = y;
+		return y;
+	}
+	
+	/* Ask for each run of changed rows to be redrawn, without taking them (any thread) */
+	void postInvalidates(View view) {
+		if (everything.get()) {
+			view.postInvalidate();
+			return;
+		}
+		
+		final AtomicLongArray rows = this.rows;
+		final int height = rows.length();
+		int top = -1;
+		int left = Integer.MAX_VALUE;
+		int right = 0;
+		
+		for (int y = 0; y <= height; y++) {
+			long row = (y < height ? rows.get(y) : NOTHING);
+			if (!isEmpty(row)) {
+				if (top < 0)
+					top = y;
+				left = Math.min(left, left(row));
+				right = Math.max(right, right(row));
+			}
+			else if (top >= 0) {
+				view.postInvalidate(left, top, right, y);
+				top = -1;
+				left = Integer.MAX_VALUE;
+				right = 0;
+			}
+		}
+	}
+	
+	
+	private static long pack(int left, int right) {
+		return ((long)left << 32) | (right & 0xffffffffL);
+	}
+	
+	private static int left(long row) {
+		return (int)(row >> 32);
+	}
+	
+	private static int right(long row) {
+		return (int)row;
+	}
+	
+	private static boolean isEmpty(long row) {
+		return left(row) >= right(row);
+	}
+}
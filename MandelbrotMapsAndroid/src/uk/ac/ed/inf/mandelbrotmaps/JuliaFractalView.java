@@ -2,6 +2,7 @@ package uk.ac.ed.inf.mandelbrotmaps;
 
 import android.content.Context;
 import android.preference.PreferenceManager;
+import uk.ac.ed.inf.mandelbrotmaps.engine.JuliaKernel;
 
 public class JuliaFractalView extends AbstractFractalView{
 	
@@ -14,23 +15,15 @@ public class JuliaFractalView extends AbstractFractalView{
 	public JuliaFractalView(Context context, FractalViewSize size) {
 		super(context, size);
 		
+		renderer.setKernel(new JuliaKernel(juliaX, juliaY));
 		setColouringScheme(PreferenceManager.getDefaultSharedPreferences(getContext()).getString("JULIA_COLOURS", "JuliaDefault")
 				, false);
-
-		for(int i = 0; i < noOfThreads; i++) {
-			renderThreadList.get(i).setName("Julia thread " + i);
-		}
-		
-		// Set the "maximum iteration" calculation constants
-		// Empirically determined values for Julia sets.
-		ITERATION_BASE = 1.58;
-		ITERATION_CONSTANT_FACTOR = 6.46;
 		
 		// Set home area
 		homeGraphArea = new MandelbrotJuliaLocation().getJuliaGraphArea();
 		
 		// How deep a zoom do we allow?
-		MAXZOOM_LN_PIXEL = -20; // Beyond -21, "double"s break down(!).
+		MAXZOOM_LN_PIXEL = renderer.getMaxZoomLnPixel(); // As deep as the most precise kernel goes
 	}
 		
 		
@@ -38,6 +31,7 @@ public class JuliaFractalView extends AbstractFractalView{
 		//stopAllRendering();
 		juliaX = newJuliaX;
 		juliaY = newJuliaY;
+		renderer.setKernel(new JuliaKernel(juliaX, juliaY));
 		setGraphArea(graphArea, true);
 	}
 	
@@ -54,40 +48,8 @@ public class JuliaFractalView extends AbstractFractalView{
 	void loadLocation(MandelbrotJuliaLocation mjLocation) {
 		//setScaledIterationCount(mjLocation.getJuliaContrast());
 		double[] juliaParam = mjLocation.getJuliaParam();
-		setGraphArea(mjLocation.getJuliaGraphArea(), true);
+		setAbsoluteGraphArea(mjLocation.getJuliaGraphArea(), true);
 		setJuliaParameter(juliaParam[0], juliaParam[1]);
 	}
 	
-	
-	int pixelInSet(int xPixel, int yPixel, int maxIterations) {
-		boolean inside = true;
-		int iterationNr;
-		double newx, newy;
-		double x, y;
-		
-		x = xMin + ( (double)xPixel * pixelSize);
-		y = yMax - ( (double)yPixel * pixelSize);
-		
-		for (iterationNr=0; iterationNr<maxIterations; iterationNr++) {
-			// z^2 + c
-			newx = (x*x) - (y*y) + juliaX;
-			newy = (2 * x * y) + juliaY;
-		
-			x = newx;
-			y = newy;
-		
-			// Well known result: if distance is >2, escapes to infinity...
-			if ( (x*x + y*y) > 4) { 
-				inside = false;
-				break;
-			}
-		}
-		
-		if(inside)
-			return colourer.colourInsidePoint();
-		else
-			return colourer.colourOutsidePoint(iterationNr, maxIterations);
-		
-	}
-	
 }
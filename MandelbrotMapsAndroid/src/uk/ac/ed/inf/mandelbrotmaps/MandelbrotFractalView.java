@@ -7,6 +7,7 @@ import android.graphics.Paint;
 import android.graphics.Paint.Style;
 import android.preference.PreferenceManager;
 import android.util.DisplayMetrics;
+import uk.ac.ed.inf.mandelbrotmaps.engine.MandelbrotKernel;
 
 public class MandelbrotFractalView extends AbstractFractalView{
 	
@@ -14,7 +15,13 @@ public class MandelbrotFractalView extends AbstractFractalView{
 	public float lastTouchY = 0;
 	
 	public double[] currentJuliaParams = null;//new double[2];
-	private float[] pinCoords = new float[2];
+	private final float[] pinCoords = new float[2];
+	
+	// Handed out by getPinCoords() - separate from pinCoords, which stays put while zooming
+	private final float[] touchPinCoords = new float[2];
+	
+	// Where the pin is drawn on screen - reused every frame
+	private final float[] mappedCoords = new float[2];
 	
 	Paint outerPinPaint;
 	Paint innerPinPaint;
@@ -34,23 +41,15 @@ public class MandelbrotFractalView extends AbstractFractalView{
 	public MandelbrotFractalView(Context context, FractalViewSize size) {
 		super(context, size);
 		
+		renderer.setKernel(new MandelbrotKernel(Prefs.checkBulbs(getContext())));
 		setColouringScheme(PreferenceManager.getDefaultSharedPreferences(getContext()).getString("MANDELBROT_COLOURS", "MandelbrotDefault")
 							, false);
 		
-		for(int i = 0; i < noOfThreads; i++) {
-			renderThreadList.get(i).setName("Mandelbrot thread " + i);
-		}
-		
-		// Set the "maximum iteration" calculation constants
-		// Empirically determined values for Mandelbrot set.
-		ITERATION_BASE = 1.24;
-		ITERATION_CONSTANT_FACTOR = 54;
-		
 		// Set home area
 		homeGraphArea = new MandelbrotJuliaLocation().getMandelbrotGraphArea();
 		
 		// How deep a zoom do we allow?
-		MAXZOOM_LN_PIXEL = -31; // Beyond -31, "double"s break down(!).
+		MAXZOOM_LN_PIXEL = renderer.getMaxZoomLnPixel(); // As deep as the most precise kernel goes
 		
 		
 		int pinColour = Color.parseColor(PreferenceManager.getDefaultSharedPreferences(getContext()).getString("PIN_COLOUR", "blue"));
@@ -80,8 +79,7 @@ public class MandelbrotFractalView extends AbstractFractalView{
 		super.onDraw(canvas);
 		
 		if(parentActivity.showingLittle && drawPin) {
-			if(controlmode != ControlMode.ZOOMING) pinCoords = getPinCoords();
-			float[] mappedCoords = new float[2];
+			if(controlmode != ControlMode.ZOOMING) findPinCoords(pinCoords);
 			matrix.mapPoints(mappedCoords, pinCoords);
 			
 			if(fractalViewSize == FractalViewSize.LARGE) {
@@ -124,54 +122,17 @@ public class MandelbrotFractalView extends AbstractFractalView{
 		if(pixelSizes != null)
 			clearPixelSizes();
 		//Log.d(TAG, ""+ _mjLocation.getMandelbrotGraphArea()[0]);
-		setGraphArea(_mjLocation.getMandelbrotGraphArea(), true);
+		setAbsoluteGraphArea(_mjLocation.getMandelbrotGraphArea(), true);
 		currentJuliaParams = _mjLocation.getJuliaParam();
 	}
 		
 	
-	int pixelInSet (int xPixel, int yPixel, int maxIterations) {
-		boolean inside = true;
-		int iterationNr;
-		double newx, newy;
-		double x, y;
-		
-		// Set x0 (real part of c)
-		double x0 = xMin + ( (double)xPixel * pixelSize);
-		double y0 = yMax - ( (double)yPixel * pixelSize ); //TODO This shouldn't be calculated every time
-	
-		// Start at x0, y0
-		x = x0;
-		y = y0;
-		
-		//Run iterations over this point
-		for (iterationNr=0; iterationNr<maxIterations; iterationNr++) {
-			// z^2 + c
-			newx = (x*x) - (y*y) + x0;
-			newy = (2 * x * y) + y0;
-		
-			x = newx;
-			y = newy;
-		
-			// Well known result: if distance is >2, escapes to infinity...
-			if ( (x*x + y*y) > 4) {
-				inside = false;
-				break;
-			}
-		}
-		
-		if(inside)
-			return colourer.colourInsidePoint();
-		else
-			return colourer.colourOutsidePoint(iterationNr, maxIterations);
-	}
-	
-	
 	public double[] getJuliaParams(float touchX, float touchY)
 	{
 		lastTouchX = touchX;
 		lastTouchY = touchY;
 		
-		double[] mandelbrotGraphArea = graphArea;
+		double[] mandelbrotGraphArea = getAbsoluteGraphArea();
 		double pixelSize = getPixelSize();
 	
 		double[] juliaParams = new double[2];
@@ -186,18 +147,29 @@ public class MandelbrotFractalView extends AbstractFractalView{
 	}
 	
 	
+	/* The pin's position on the image. The array is reused, so it's only good until the next call. */
 	public float[] getPinCoords() {		
-		float[] pinCoords = new float[2];
+		findPinCoords(touchPinCoords);
+		return touchPinCoords;
+	}
+	
+	/* Put the pin's position on the image into pinCoords */
+	private void findPinCoords(float[] pinCoords) {
 		double pixelSize = getPixelSize();
 		
 		if (fractalViewSize == FractalViewSize.LITTLE) {
 			currentJuliaParams = ((JuliaFractalView)parentActivity.fractalView).getJuliaParam();
 		}
 
-		pinCoords[0] = (float) ((currentJuliaParams[0] - graphArea[0]) / pixelSize);
-		pinCoords[1] = (float) (-(currentJuliaParams[1] - graphArea[1]) / pixelSize);
-		
-		return pinCoords;
+		// Relative to the graph area, from the origin's doubles - nothing allocated, as this runs every frame
+		pinCoords[0] = (float) (((currentJuliaParams[0] - graphOriginXValue) - graphArea[0]) / pixelSize);
+		pinCoords[1] = (float) (-((currentJuliaParams[1] - graphOriginYValue) - graphArea[1]) / pixelSize);
+	}
+	
+	
+	/* Turn the cardioid/bulb shortcut on or off (doesn't change the image, just the speed) */
+	public void setBulbChecking(boolean checkBulbs) {
+		renderer.setKernel(new MandelbrotKernel(checkBulbs));
 	}
 	
 	
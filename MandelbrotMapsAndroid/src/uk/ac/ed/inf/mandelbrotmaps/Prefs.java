@@ -1,16 +1,39 @@
 package uk.ac.ed.inf.mandelbrotmaps;
 
 import android.content.Context;
+import android.content.SharedPreferences;
 import android.graphics.Color;
 import android.os.Bundle;
 import android.preference.PreferenceActivity;
 import android.preference.PreferenceManager;
+import uk.ac.ed.inf.mandelbrotmaps.engine.SolidGuessing;
 
 public class Prefs extends PreferenceActivity {
 	
 	private static final String CRUDE_OPTION = "CRUDE";
 	private static final boolean CRUDE_OPT_DEFAULT = true;
 	
+	private static final String PROGRESSIVE_OPTION = "PROGRESSIVE";
+	private static final boolean PROGRESSIVE_OPT_DEFAULT = true;
+	
+	private static final String SUBDIVIDE_OPTION = "SUBDIVIDE";
+	private static final boolean SUBDIVIDE_OPT_DEFAULT = false;
+	
+	private static final String GUESS_OPTION = "GUESS";
+	private static final boolean GUESS_OPT_DEFAULT = false;
+	
+	private static final String GUESS_VERIFY_OPTION = "GUESS_VERIFY";
+	private static final boolean GUESS_VERIFY_OPT_DEFAULT = true;
+	
+	public static final String BULB_CHECK_OPTION = "BULB_CHECK";
+	private static final boolean BULB_CHECK_OPT_DEFAULT = true;
+	
+	public static final String SMOOTH_OPTION = "SMOOTH";
+	private static final boolean SMOOTH_OPT_DEFAULT = true;
+	
+	public static final String DISK_CACHE_OPTION = "DISK_CACHE";
+	private static final String DISK_CACHE_OPT_DEFAULT = "32";
+	
 	private static final String SHOW_TIMES_OPTION = "SHOW_TIMES";
 	private static final boolean SHOW_TIMES_OPT_DEFAULT = true;
 	
@@ -24,6 +47,35 @@ public class Prefs extends PreferenceActivity {
 		return PreferenceManager.getDefaultSharedPreferences(context).getBoolean(CRUDE_OPTION, CRUDE_OPT_DEFAULT);
 	}
 	
+	public static boolean performProgressive(Context context) {
+		return PreferenceManager.getDefaultSharedPreferences(context).getBoolean(PROGRESSIVE_OPTION, PROGRESSIVE_OPT_DEFAULT);
+	}
+	
+	public static boolean performSubdivision(Context context) {
+		return PreferenceManager.getDefaultSharedPreferences(context).getBoolean(SUBDIVIDE_OPTION, SUBDIVIDE_OPT_DEFAULT);
+	}
+	
+	public static SolidGuessing solidGuessing(Context context) {
+		SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+		if (!prefs.getBoolean(GUESS_OPTION, GUESS_OPT_DEFAULT))
+			return SolidGuessing.OFF;
+		return prefs.getBoolean(GUESS_VERIFY_OPTION, GUESS_VERIFY_OPT_DEFAULT) ? SolidGuessing.VERIFIED : SolidGuessing.ON;
+	}
+	
+	public static boolean checkBulbs(Context context) {
+		return PreferenceManager.getDefaultSharedPreferences(context).getBoolean(BULB_CHECK_OPTION, BULB_CHECK_OPT_DEFAULT);
+	}
+	
+	public static boolean smoothColouring(Context context) {
+		return PreferenceManager.getDefaultSharedPreferences(context).getBoolean(SMOOTH_OPTION, SMOOTH_OPT_DEFAULT);
+	}
+	
+	/* Size bound of the disk tier of the tile cache, in bytes (0 if it's off) */
+	public static long diskCacheBytes(Context context) {
+		String megabytes = PreferenceManager.getDefaultSharedPreferences(context).getString(DISK_CACHE_OPTION, DISK_CACHE_OPT_DEFAULT);
+		return Long.parseLong(megabytes) * 1024 * 1024;
+	}
+	
 	public static boolean showTimes(Context context) {
 		return PreferenceManager.getDefaultSharedPreferences(context).getBoolean(SHOW_TIMES_OPTION, SHOW_TIMES_OPT_DEFAULT);
 	}
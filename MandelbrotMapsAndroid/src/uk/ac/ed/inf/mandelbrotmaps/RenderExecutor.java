@@ -0,0 +1,158 @@
+package uk.ac.ed.inf.mandelbrotmaps;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.Map;
+
+import uk.ac.ed.inf.mandelbrotmaps.AbstractFractalView.FractalViewSize;
+
+/* The one set of render threads for the whole app, shared by every fractal view.
+ * Each view has its own queue of renderings. Idle threads join the rendering at the front of
+ * a large view's queue if there is one, and only then a little view's - so whichever view is 
+ * on screen gets every core, and showing or hiding the little view doesn't start or stop threads.
+ * All the threads working on a rendering take tiles from it until it runs out (see Rendering). */
+class RenderExecutor {
+	
+	private static RenderExecutor instance;
+	
+	private final ArrayList<RenderThread> threads = new ArrayList<RenderThread>();
+	
+	// Queued renderings, per view. Views are dropped once their queue empties, so none are kept alive here.
+	private final Map<AbstractFractalView, LinkedList<Rendering>> queues = new LinkedHashMap<AbstractFractalView, LinkedList<Rendering>>();
+	
+	private RenderExecutor() {
+		int noOfThreads = Runtime.getRuntime().availableProcessors();
+		
+		for (int i = 0; i < noOfThreads; i++) {
+			RenderThread thread = new RenderThread(this);
+			thread.setName("Render thread " + i);
+			threads.add(thread);
+			thread.start();
+		}
+	}
+	
+	/* The shared executor, started the first time it's asked for */
+	static synchronized RenderExecutor getInstance() {
+		if (instance == null)
+			instance = new RenderExecutor();
+		return instance;
+	}
+	
+	int getThreadCount() {
+		return threads.size();
+	}
+	
+	
+	/* Add a rendering to the end of a view's queue */
+	synchronized void submit(AbstractFractalView view, Rendering rendering) {
+		LinkedList<Rendering> queue = queues.get(view);
+		if (queue == null) {
+			queue = new LinkedList<Rendering>();
+			queues.put(view, queue);
+		}
+		queue.add(rendering);
+		notifyAll();
+	}
+	
+	/* Forget everything a view has queued. (Anything in progress is stopped by the view moving
+	 * on to a new generation - see Rendering.isStale().) */
+	synchronized void cancel(AbstractFractalView view) {
+		queues.remove(view);
+	}
+	
+	
+	/* Is any thread still inside one of this view's renderings - even a stale one it hasn't noticed is stale yet,
+	 * or a finished one whose tiles it's still storing?
+	 * Until none is, the arrays those renderings were given could still be written to or read from. */
+	synchronized boolean isBusyWith(AbstractFractalView view) {
+		for (RenderThread thread : threads) {
+			if (thread.current != null && thread.current.getView() == view)
+				return true;
+		}
+		return false;
+	}
+	
+	
+	/* Wait for a rendering with tiles left to take, and join it (used by render threads) */
+	synchronized Rendering takeRendering() throws InterruptedException {
+		while (true) {
+			Rendering rendering = findRendering(FractalViewSize.LARGE);
+			if (rendering == null)
+				rendering = findRendering(FractalViewSize.LITTLE);
+			
+			if (rendering != null) {
+				rendering.join();
+				((RenderThread)Thread.currentThread()).current = rendering;
+				return rendering;
+			}
+			
+			wait();
+		}
+	}
+	
+	/* The first rendering, on a view of this size, that a thread could join */
+	private Rendering findRendering(FractalViewSize size) {
+		for (Map.Entry<AbstractFractalView, LinkedList<Rendering>> entry : queues.entrySet()) {
+			AbstractFractalView view = entry.getKey();
+			if (view.fractalViewSize != size)
+				continue;
+			
+			LinkedList<Rendering> queue = entry.getValue();
+			Rendering rendering = queue.peek();
+			if (rendering == null)
+				continue;
+			
+			// Left over from before the view moved on
+			if (rendering.isStale()) {
+				queue.poll();
+				return findRendering(size);
+			}
+			
+			// Nobody's started it yet - share it out
+			if (!rendering.hasStarted())
+				rendering.start(view.renderer);
+			
+			// Only one rendering per view at a time - the next waits until this one's finished
+			if (rendering.hasTilesLeft())
+				return rendering;
+		}
+		
+		return null;
+	}
+	
+	/* A thread has run out of tiles on this rendering (used by render threads).
+	 * Once the last thread on it is done, it's taken off the queue and, if it wasn't aborted, 
+	 * the view is told it's complete. */
+	void leaveRendering(Rendering rendering) {
+		final RenderThread thread = (RenderThread)Thread.currentThread();
+		boolean completed;
+		
+		synchronized (this) {
+			if (!rendering.leave()) {
+				thread.current = null;
+				return;
+			}
+			
+			LinkedList<Rendering> queue = queues.get(rendering.getView());
+			if (queue != null) {
+				queue.remove(rendering);
+				if (queue.isEmpty())
+					queues.remove(rendering.getView());
+			}
+			completed = !rendering.isStale();
+			
+			// Whatever was waiting behind it can start now
+			notifyAll();
+		}
+		
+		// Still busy with the view until that's done - completing stores tiles from the rendering's arrays, 
+		// which the view mustn't change in place underneath it (see AbstractFractalView.shiftPixels())
+		if (completed)
+			rendering.getView().notifyCompleteRender(rendering);
+		
+		synchronized (this) {
+			thread.current = null;
+		}
+	}
+}
@@ -1,39 +1,31 @@
 package uk.ac.ed.inf.mandelbrotmaps;
 
 
+/* One of the shared render threads (see RenderExecutor) */
 class RenderThread extends Thread {
-	private AbstractFractalView mjCanvas;
-	private volatile boolean abortThisRendering = false;
-	public boolean isRunning = false;
-	private int threadID = -1;
+	private RenderExecutor executor;
 	
-	public RenderThread(AbstractFractalView mjCanvasHandle, int _threadID, int _noOfThreads) {
-		mjCanvas = mjCanvasHandle;
-		threadID = _threadID;
-		//setPriority(Thread.MAX_PRIORITY);
-	}
-	
-	public void abortRendering() {
-		abortThisRendering = true;
-	}
+	// What it's working on, if anything (guarded by the executor)
+	Rendering current;
 	
-	public void allowRendering() {
-		abortThisRendering = false;
-	}
-	
-	public boolean abortSignalled() {
-		return abortThisRendering;
+	public RenderThread(RenderExecutor executor) {
+		this.executor = executor;
+		//setPriority(Thread.MAX_PRIORITY);
 	}
 	
 	public void run() {
 		while(true) {
 			try {
-				Rendering newRendering = mjCanvas.getNextRendering(threadID);
-				mjCanvas.computeAllPixels(newRendering.getPixelBlockSize(), threadID);
-				abortThisRendering = false;
+				Rendering rendering = executor.takeRendering();
+				try {
+					rendering.getView().computeAllPixels(rendering);
+				}
+				finally {
+					executor.leaveRendering(rendering);
+				}
 			} catch (InterruptedException e) {
 				return;
 			}
 		}
 	}
-}
\ No newline at end of file
+}
@@ -1,13 +1,181 @@
 package uk.ac.ed.inf.mandelbrotmaps;
 
-class Rendering {
-	private int pixelBlockSize;
+import uk.ac.ed.inf.mandelbrotmaps.engine.FractalRenderer;
+import uk.ac.ed.inf.mandelbrotmaps.engine.RenderObserver;
+import uk.ac.ed.inf.mandelbrotmaps.engine.SolidGuessing;
+import uk.ac.ed.inf.mandelbrotmaps.engine.TilePool;
+import uk.ac.ed.inf.mandelbrotmaps.engine.Viewport;
+
+/* One pass over a view's image: everything the render threads need, fixed when it's scheduled,
+ * so nothing the view does afterwards (dragging, resizing) can change it underneath them.
+ * Any number of render threads can work on it at once, all taking tiles from its pool 
+ * until it's empty (see RenderExecutor).
+ * It belongs to one generation of the view's renders; once the view moves on to the next, 
+ * it's stale and the threads drop it. */
+class Rendering implements RenderObserver {
+	private final AbstractFractalView view;
+	private final int generation;
+	private final Viewport viewport;
+	private final int maxIterations;
+	private final int pixelBlockSize;
+	private final boolean subdivide;
+	private final SolidGuessing guessing;
+	
+	// Only recolouring what an earlier rendering left in the iterations array, without iterating
+	private final boolean recolour;
+	
+	// Only bringing in what the tile cache has on disk, before the passes that iterate
+	private final boolean restore;
+	
+	// Where the results go - the arrays the view had when this was scheduled
+	private final int[] frame;
+	private final int[] iterations;
+	private final float[] fractions;
+	private final byte[] pixelSizes;
+	
+	private volatile TilePool tiles;
+	
+	// Threads currently working on it (guarded by the executor)
+	private int activeThreads = 0;
+	
+	public Rendering(AbstractFractalView view, int generation, Viewport viewport, int maxIterations,
+			int pixelBlockSize, boolean subdivide, SolidGuessing guessing, int[] frame, int[] iterations, float[] fractions, byte[] pixelSizes) {
+		this(view, generation, viewport, maxIterations, pixelBlockSize, subdivide, guessing, false, false, frame, iterations, fractions, pixelSizes);
+	}
+	
+	private Rendering(AbstractFractalView view, int generation, Viewport viewport, int maxIterations,
+			int pixelBlockSize, boolean subdivide, SolidGuessing guessing, boolean recolour, boolean restore, 
+			int[] frame, int[] iterations, float[] fractions, byte[] pixelSizes) {
+		this.view = view;
+		this.generation = generation;
+		this.viewport = viewport;
+		this.maxIterations = maxIterations;
+		this.pixelBlockSize = pixelBlockSize;
+		this.subdivide = subdivide;
+		this.guessing = guessing;
+		this.recolour = recolour;
+		this.restore = restore;
+		this.frame = frame;
+		this.iterations = iterations;
+		this.fractions = fractions;
+		this.pixelSizes = pixelSizes;
+	}
+	
+	/* A pass that only recolours the frame from its iteration counts (after a colouring scheme change) */
+	public static Rendering recolouring(AbstractFractalView view, int generation, Viewport viewport, int maxIterations,
+			int[] frame, int[] iterations, float[] fractions) {
+		return new Rendering(view, generation, viewport, maxIterations, FractalRenderer.DEFAULT_PIXEL_SIZE, false, 
+				SolidGuessing.OFF, true, false, frame, iterations, fractions, null);
+	}
+	
+	/* A pass that reads the tile cache's disk store, and fills in anything it has, for the passes after it to skip.
+	 * subdivide and guessing are those of the detailed pass, which decide which tiles fit. */
+	public static Rendering restoring(AbstractFractalView view, int generation, Viewport viewport, int maxIterations,
+			boolean subdivide, SolidGuessing guessing, int[] frame, int[] iterations, float[] fractions, byte[] pixelSizes) {
+		return new Rendering(view, generation, viewport, maxIterations, FractalRenderer.DEFAULT_PIXEL_SIZE, subdivide, 
+				guessing, false, true, frame, iterations, fractions, pixelSizes);
+	}
 	
-	public Rendering(int newPixelBlockSize) {
-		pixelBlockSize = newPixelBlockSize;
+	public AbstractFractalView getView() {
+		return view;
+	}
+	
+	public Viewport getViewport() {
+		return viewport;
+	}
+	
+	public int getMaxIterations() {
+		return maxIterations;
 	}
 	
 	public int getPixelBlockSize() {
 		return pixelBlockSize;
 	}
-}
\ No newline at end of file
+	
+	/* Render by rectangle subdivision rather than row by row? (Full resolution only) */
+	public boolean isSubdivided() {
+		return subdivide;
+	}
+	
+	/* May samples be guessed from the level before, rather than iterated? (Block renders only) */
+	public SolidGuessing getGuessing() {
+		return guessing;
+	}
+	
+	public boolean isRecolouring() {
+		return recolour;
+	}
+	
+	public boolean isRestoring() {
+		return restore;
+	}
+	
+	public int[] getFrame() {
+		return frame;
+	}
+	
+	/* Per-pixel iteration counts, kept alongside the frame */
+	public int[] getIterations() {
+		return iterations;
+	}
+	
+	/* Per-pixel escape fractions, for smooth colouring */
+	public float[] getFractions() {
+		return fractions;
+	}
+	
+	/* Block size tracking, or null if this view doesn't keep pixels between renders */
+	public byte[] getPixelSizes() {
+		return pixelSizes;
+	}
+	
+	public TilePool getTiles() {
+		return tiles;
+	}
+	
+	/* Has the view scheduled newer renders since this one? */
+	public boolean isStale() {
+		return generation != view.getRenderGeneration();
+	}
+	
+	
+	/* Cut the image up into tiles, ready for threads to start on. Restoring is one tile, so only one 
+	 * thread does it, and the passes queued behind wait until it's done. */
+	void start(FractalRenderer renderer) {
+		if (restore)
+			tiles = new TilePool(viewport.getWidth(), viewport.getHeight(), viewport.getWidth(), viewport.getHeight());
+		else
+			tiles = renderer.newTilePool(viewport.getWidth(), viewport.getHeight(), pixelBlockSize, subdivide);
+	}
+	
+	boolean hasStarted() {
+		return tiles != null;
+	}
+	
+	boolean hasTilesLeft() {
+		return tiles != null && tiles.hasTilesLeft() && !isStale();
+	}
+	
+	void join() {
+		activeThreads++;
+	}
+	
+	/* Returns true if that was the last thread on it, and there's no more to take */
+	boolean leave() {
+		activeThreads--;
+		return activeThreads == 0 && !hasTilesLeft();
+	}
+	
+	
+	public boolean abortSignalled() {
+		return isStale();
+	}
+	
+	public void finishedRect(int left, int top, int right, int bottom) {
+		view.finishedRect(left, top, right, bottom);
+	}
+	
+	public void showProgress() {
+		view.showProgress();
+	}
+}
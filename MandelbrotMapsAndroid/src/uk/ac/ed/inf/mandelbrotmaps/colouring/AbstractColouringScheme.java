@@ -0,0 +1,52 @@
+/*
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package uk.ac.ed.inf.mandelbrotmaps.colouring;
+
+
+/**
+ * Common base for colouring schemes, building the palette and colouring runs of points
+ * from the scheme's own per-point colours.
+ */
+public abstract class AbstractColouringScheme implements ColouringScheme {
+
+    /**
+     * Colours the iteration counts 0 to maxIterations in one batch, with
+     * {@link #colourPoints(int[], int, int, int, int[])}.
+     * @param maxIterations The iteration limit the table is for
+     * @return maxIterations + 1 colours, the last for points in the set
+     */
+    public int[] buildPalette(int maxIterations) {
+        int[] palette = new int[maxIterations + 1];
+        
+        for (int iterations = 0; iterations <= maxIterations; iterations++) {
+            palette[iterations] = iterations;
+        }
+        colourPoints(palette, 0, maxIterations + 1, maxIterations, palette);
+        
+        return palette;
+    }
+
+    /**
+     * Calls {@link #colourOutsidePoint(int, int)} or {@link #colourInsidePoint()} for each point.
+     * Only palettes are built with it, so there's nothing for a scheme to gain by overriding it.
+     */
+    public void colourPoints(int[] iterations, int from, int to, int maxIterations, int[] argbOut) {
+        for (int i = from; i < to; i++) {
+            int pointIterations = iterations[i];
+            argbOut[i] = (pointIterations >= maxIterations ? colourInsidePoint() : colourOutsidePoint(pointIterations, maxIterations));
+        }
+    }
+}
@@ -34,4 +34,23 @@ public interface ColouringScheme {
      * @return returns RGB colour as int
      */
     public int colourInsidePoint();
+
+    /**
+     * Builds a lookup table of colours indexed by iteration count, so a render can colour
+     * each pixel with an array read instead of a call
+     * @param maxIterations The iteration limit the table is for
+     * @return maxIterations + 1 colours: element i for a point escaping after i iterations,
+     * and element maxIterations for a point in the set
+     */
+    public int[] buildPalette(int maxIterations);
+
+    /**
+     * Colours a run of points in one go, inside and outside alike
+     * @param iterations Iteration counts; maxIterations or more for points in the set
+     * @param from First index to colour
+     * @param to Index to stop at (exclusive)
+     * @param maxIterations The iteration limit the counts were found with
+     * @param argbOut Where the colours go, at the same indices. May be the iterations array itself.
+     */
+    public void colourPoints(int[] iterations, int from, int to, int maxIterations, int[] argbOut);
 }
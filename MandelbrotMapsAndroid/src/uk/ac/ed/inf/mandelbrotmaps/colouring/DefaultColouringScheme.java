@@ -21,7 +21,7 @@ package uk.ac.ed.inf.mandelbrotmaps.colouring;
  * red, magenta and back to blue.
  * @author mallia
  */
-public class DefaultColouringScheme implements ColouringScheme {
+public class DefaultColouringScheme extends AbstractColouringScheme {
 
     /**
      * The spacing of the colours.  For example, when creating blue colours, the
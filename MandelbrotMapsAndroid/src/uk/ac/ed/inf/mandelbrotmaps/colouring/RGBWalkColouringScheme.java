@@ -21,7 +21,7 @@ package uk.ac.ed.inf.mandelbrotmaps.colouring;
  * red, magenta and back to blue.
  * @author mallia
  */
-public class RGBWalkColouringScheme implements ColouringScheme {
+public class RGBWalkColouringScheme extends AbstractColouringScheme {
 
     /**
      * The spacing of the colours.  For example, when creating blue colours, the
@@ -29,6 +29,11 @@ public class RGBWalkColouringScheme implements ColouringScheme {
      */
     private static final int COLOUR_SPACING = 30;
 
+    /**
+     * The largest value any one of the RGB components reaches.
+     */
+    private static final int MAX_VALUE_FOR_COLOUR = 220;
+
 
     /**
      * The colouring algorithm colours in the following manner (values in brackets are RGB values):
@@ -50,7 +55,7 @@ public class RGBWalkColouringScheme implements ColouringScheme {
         }   
 
         //number of iterations that we can handle in each segment of the colour scheme
-        int maxValueForColour = 220;
+        int maxValueForColour = MAX_VALUE_FOR_COLOUR;
         double iterationsPerSegmentDouble = ((double) maxValueForColour) / (double) COLOUR_SPACING;
         int iterationsPerSegment = (int) Math.floor(iterationsPerSegmentDouble);
 
@@ -132,6 +137,30 @@ public class RGBWalkColouringScheme implements ColouringScheme {
         //return 0xFF000000;
     }
 
+    /**
+     * After the first period the walk just repeats, so only the first two periods are
+     * coloured and the rest is copied from the period before.
+     * @param maxIterations The iteration limit the table is for
+     * @return maxIterations + 1 colours, the last for points in the set
+     */
+    public int[] buildPalette(int maxIterations) {
+        int[] palette = new int[maxIterations + 1];
+        int iterationsPerPeriod = (int) Math.floor((double) MAX_VALUE_FOR_COLOUR / (double) COLOUR_SPACING) * 6;
+
+        int worked = Math.min(iterationsPerPeriod * 2, maxIterations);
+        for (int iterations = 0; iterations < worked; iterations++) {
+            palette[iterations] = iterations;
+        }
+        colourPoints(palette, 0, worked, maxIterations, palette);
+
+        for (int iterations = worked; iterations < maxIterations; iterations++) {
+            palette[iterations] = palette[iterations - iterationsPerPeriod];
+        }
+        palette[maxIterations] = colourInsidePoint();
+
+        return palette;
+    }
+
 
 }
 
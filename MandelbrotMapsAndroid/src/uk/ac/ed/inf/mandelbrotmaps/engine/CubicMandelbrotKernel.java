@@ -0,0 +1,86 @@
+package uk.ac.ed.inf.mandelbrotmaps.engine;
+
+/* The cubic Mandelbrot variant, as previously computed in CubicMandelbrotFractalView */
+public class CubicMandelbrotKernel extends FractalKernel {
+	
+	// Each iteration raises |z| to the third power, not the second
+	private static final double LN_CUBIC = Math.log(3);
+	
+	// Measured as for FractalKernel.DOUBLE_PRECISION_LN_PIXEL, but against BigDecimal - there's no double-double cubic kernel
+	static final double CUBIC_DOUBLE_PRECISION_LN_PIXEL = -20;
+	
+	public CubicMandelbrotKernel() {
+		// Shares the Mandelbrot set's empirical values.
+		super(MandelbrotKernel.ITERATION_BASE, MandelbrotKernel.ITERATION_CONSTANT_FACTOR);
+	}
+	
+	public Symmetry getSymmetry() {
+		return Symmetry.REAL_AXIS;
+	}
+	
+	public double getDoublePrecisionLnPixel() {
+		return CUBIC_DOUBLE_PRECISION_LN_PIXEL;
+	}
+	
+	public int computeRow(double ci, double cr0, double dcr, int count, int maxIterations, int[] iterOut, float[] fractionOut) {
+		int iterationNr;
+		double newx, newy;
+		double x, y;
+		double checkX, checkY;
+		int checkAt;
+		int shortCircuited = 0;
+		
+		final double epsilon = dcr * PERIODICITY_TOLERANCE;
+		
+		// Imaginary part of c is fixed along the row
+		final double y0 = ci;
+		
+		for (int i = 0; i < count; i++) {
+			// Set x0 (real part of c)
+			final double x0 = cr0 + ((double)i * dcr);
+			
+			// Start at x0, y0
+			x = x0;
+			y = y0;
+			
+			// Brent-style cycle detection - compare against a saved point, moved on at powers of two
+			checkX = x;
+			checkY = y;
+			checkAt = 1;
+			
+			//Run iterations over this point
+			for (iterationNr=0; iterationNr<maxIterations; iterationNr++) {
+				newx = (x*x*x) - (y*y*x) -(2*x*y*y) + x0;
+				newy = (2 * x*x * y + y*x*x -y*y*y) + y0;
+			
+				x = newx;
+				y = newy;
+			
+				// Well known result: if distance is >2, escapes to infinity... 
+				// (Carried on out to the escape radius, for the smooth escape value.)
+				if ( (x*x + y*y) > ESCAPE_RADIUS_SQUARED) {
+					break;
+				}
+				
+				// Orbit has come back on itself - it's never going to escape
+				if (Math.abs(x - checkX) < epsilon && Math.abs(y - checkY) < epsilon) {
+					iterationNr = maxIterations;
+					shortCircuited++;
+					break;
+				}
+				
+				if (iterationNr == checkAt) {
+					checkX = x;
+					checkY = y;
+					checkAt <<= 1;
+				}
+			}
+			
+			iterOut[i] = iterationNr;
+			if (fractionOut != null)
+				fractionOut[i] = (iterationNr < maxIterations ? escapeFraction(x*x + y*y, LN_CUBIC) : 0);
+		}
+		
+		return shortCircuited;
+	}
+}
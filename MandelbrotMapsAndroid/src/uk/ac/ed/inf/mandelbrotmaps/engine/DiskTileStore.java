@@ -0,0 +1,283 @@
+package uk.ac.ed.inf.mandelbrotmaps.engine;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/* The tile cache's second tier: tiles kept in files, so they're still there the next time the app starts.
+ * Tiles are only ever appended to the data file, each in a fixed-size record, and read back through a
+ * memory map of it. An index file alongside is a journal of (key, record) pairs - written whenever a tile
+ * is stored or used, so that reading it back in order leaves the tiles in least-recently-used order too.
+ * Replaced tiles leave dead records behind; once the data file would grow past its size bound, the most
+ * recently used tiles are copied into fresh files and the rest dropped.
+ * Not thread-safe - TileCache only opens and uses it under its diskLock, on render threads. */
+public class DiskTileStore {
+	
+	// A tile's iteration counts, then its fractions
+	static final int RECORD_BYTES = TileCache.TILE_SIZE * TileCache.TILE_SIZE * 8;
+	
+	private static final String DATA_FILE = "tiles.dat";
+	private static final String INDEX_FILE = "tiles.idx";
+	private static final String NEW_SUFFIX = ".new";
+	
+	// First thing in the index, so files from an older layout get thrown away instead of misread
+	private static final int INDEX_MAGIC = 0x4d4d5432;
+	
+	// Compaction keeps tiles up to this fraction of the size bound, so it isn't needed again straight away
+	private static final int COMPACTED_FRACTION_DIVISOR = 2;
+	
+	// The index is rewritten once it holds this many times more entries than there are live tiles
+	private static final int INDEX_SLACK = 4;
+	
+	private final File directory;
+	private final long maxBytes;
+	
+	private FileChannel data;
+	private MappedByteBuffer map;
+	private int dataRecords;
+	
+	private DataOutputStream index;
+	private int indexEntries;
+	
+	// Record number of every live tile, in access order, so the first is always the least recently used
+	private final LinkedHashMap<String, Integer> records = new LinkedHashMap<String, Integer>(16, 0.75f, true);
+	
+	// For writing a tile out in one go
+	private final ByteBuffer recordBuffer = ByteBuffer.allocate(RECORD_BYTES);
+	
+	
+	/* Opens the store kept in directory, creating it if there isn't one, and keeping it under maxBytes */
+	public DiskTileStore(File directory, long maxBytes) throws IOException {
+		this.directory = directory;
+		this.maxBytes = maxBytes;
+		
+		// Left over from a compaction that didn't finish
+		new File(directory, DATA_FILE + NEW_SUFFIX).delete();
+		new File(directory, INDEX_FILE + NEW_SUFFIX).delete();
+		
+		File dataFile = new File(directory, DATA_FILE);
+		data = new RandomAccessFile(dataFile, "rw").getChannel();
+		dataRecords = (int)(data.size() / RECORD_BYTES);
+		
+		readIndex(new File(directory, INDEX_FILE));
+		
+		// Without an index nothing in the data file can be found
+		if (records.isEmpty()) {
+			data.truncate(0);
+			dataRecords = 0;
+		}
+		
+		if ((long)dataRecords * RECORD_BYTES > maxBytes)
+			compact();
+		else
+			openIndex(records.isEmpty() || indexEntries > INDEX_SLACK * records.size());
+	}
+	
+	/* Removes a store's files, for when the disk tier is turned off */
+	public static void delete(File directory) {
+		new File(directory, DATA_FILE).delete();
+		new File(directory, INDEX_FILE).delete();
+	}
+	
+	public void close() {
+		try {
+			index.close();
+		}
+		catch (IOException ioe) {}
+		try {
+			data.close();
+		}
+		catch (IOException ioe) {}
+		map = null;
+	}
+	
+	public long getBytesUsed() {
+		return (long)dataRecords * RECORD_BYTES;
+	}
+	
+	
+	/* Read the tile stored under key into iterations and fractions. Returns false if there isn't one. */
+	public boolean read(String key, int[] iterations, float[] fractions) throws IOException {
+		Integer record = records.get(key);
+		if (record == null)
+			return false;
+		
+		// The file has grown since it was mapped
+		final long offset = (long)record * RECORD_BYTES;
+		if (map == null || offset + RECORD_BYTES > map.capacity())
+			map = data.map(FileChannel.MapMode.READ_ONLY, 0, (long)dataRecords * RECORD_BYTES);
+		
+		ByteBuffer tile = map.duplicate();
+		tile.position((int)offset);
+		tile.asIntBuffer().get(iterations);
+		tile.position((int)offset + (RECORD_BYTES / 2));
+		tile.asFloatBuffer().get(fractions);
+		
+		// Note that it's been used, so it's kept over others when compacting - now and in later runs
+		writeIndexEntry(key, record);
+		return true;
+	}
+	
+	/* Store a tile under key, replacing any already there. Call flush() once a batch has been written. */
+	public void write(String key, int[] iterations, float[] fractions) throws IOException {
+		if ((long)(dataRecords + 1) * RECORD_BYTES > maxBytes) {
+			records.remove(key);
+			compact();
+			
+			// Too small a bound to hold even this one
+			if ((long)(dataRecords + 1) * RECORD_BYTES > maxBytes)
+				return;
+		}
+		
+		recordBuffer.clear();
+		recordBuffer.asIntBuffer().put(iterations);
+		recordBuffer.position(RECORD_BYTES / 2);
+		recordBuffer.asFloatBuffer().put(fractions);
+		recordBuffer.position(0);
+		writeRecord(data, dataRecords, recordBuffer);
+		
+		records.put(key, dataRecords);
+		writeIndexEntry(key, dataRecords);
+		dataRecords++;
+	}
+	
+	/* Push the index out to the file, after a batch of reads or writes */
+	public void flush() throws IOException {
+		index.flush();
+		
+		if (indexEntries > INDEX_SLACK * records.size()) {
+			index.close();
+			openIndex(true);
+		}
+	}
+	
+	
+	/* Keep only the most recently used tiles that fit in a fraction of the size bound,
+	 * copying them into new files that then replace the old ones */
+	private void compact() throws IOException {
+		// Most recently used are last - count back from there
+		List<Map.Entry<String, Integer>> kept = new ArrayList<Map.Entry<String, Integer>>(records.entrySet());
+		int keep = (int)Math.min(kept.size(), (maxBytes / COMPACTED_FRACTION_DIVISOR) / RECORD_BYTES);
+		kept = kept.subList(kept.size() - keep, kept.size());
+		
+		File newDataFile = new File(directory, DATA_FILE + NEW_SUFFIX);
+		FileChannel newData = new RandomAccessFile(newDataFile, "rw").getChannel();
+		LinkedHashMap<String, Integer> newRecords = new LinkedHashMap<String, Integer>(16, 0.75f, true);
+		try {
+			ByteBuffer tile = ByteBuffer.allocate(RECORD_BYTES);
+			for (Map.Entry<String, Integer> entry : kept) {
+				tile.clear();
+				while (tile.hasRemaining()) {
+					if (data.read(tile, ((long)entry.getValue() * RECORD_BYTES) + tile.position()) < 0)
+						throw new EOFException();
+				}
+				tile.flip();
+				writeRecord(newData, newRecords.size(), tile);
+				newRecords.put(entry.getKey(), newRecords.size());
+			}
+			newData.force(false);
+		}
+		catch (IOException ioe) {
+			newData.close();
+			newDataFile.delete();
+			throw ioe;
+		}
+		
+		// Index goes first: if anything stops partway, there's no index, so the store starts again empty
+		if (index != null)
+			index.close();
+		data.close();
+		map = null;
+		File dataFile = new File(directory, DATA_FILE);
+		new File(directory, INDEX_FILE).delete();
+		dataFile.delete();
+		newData.close();
+		if (!newDataFile.renameTo(dataFile))
+			throw new IOException("Couldn't replace " + dataFile);
+		
+		data = new RandomAccessFile(dataFile, "rw").getChannel();
+		dataRecords = newRecords.size();
+		records.clear();
+		records.putAll(newRecords);
+		openIndex(true);
+	}
+	
+	
+	/* Load the index's entries into records, in the order written. A damaged end is ignored. */
+	private void readIndex(File indexFile) throws IOException {
+		if (!indexFile.exists())
+			return;
+		
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)));
+		try {
+			if (in.readInt() != INDEX_MAGIC)
+				return;
+			
+			while (true) {
+				String key = in.readUTF();
+				int record = in.readInt();
+				indexEntries++;
+				
+				if (record >= 0 && record < dataRecords)
+					records.put(key, record);
+			}
+		}
+		catch (EOFException eofe) {}
+		finally {
+			in.close();
+		}
+	}
+	
+	/* Start appending to the index - after writing it afresh from records, if rewrite is set */
+	private void openIndex(boolean rewrite) throws IOException {
+		File indexFile = new File(directory, INDEX_FILE);
+		
+		if (rewrite) {
+			File newIndexFile = new File(directory, INDEX_FILE + NEW_SUFFIX);
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(newIndexFile)));
+			try {
+				out.writeInt(INDEX_MAGIC);
+				for (Map.Entry<String, Integer> entry : records.entrySet()) {
+					out.writeUTF(entry.getKey());
+					out.writeInt(entry.getValue());
+				}
+			}
+			finally {
+				out.close();
+			}
+			
+			indexFile.delete();
+			if (!newIndexFile.renameTo(indexFile))
+				throw new IOException("Couldn't replace " + indexFile);
+			indexEntries = records.size();
+		}
+		
+		index = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(indexFile, true)));
+	}
+	
+	private void writeIndexEntry(String key, int record) throws IOException {
+		index.writeUTF(key);
+		index.writeInt(record);
+		indexEntries++;
+	}
+	
+	private static void writeRecord(FileChannel channel, int record, ByteBuffer tile) throws IOException {
+		long position = (long)record * RECORD_BYTES;
+		while (tile.hasRemaining())
+			position += channel.write(tile, position);
+	}
+}
@@ -0,0 +1,194 @@
+package uk.ac.ed.inf.mandelbrotmaps.engine;
+
+import java.math.BigDecimal;
+
+/* z -> z^2 + c in double-double arithmetic: each number is an unevaluated sum hi + lo of two doubles,
+ * giving about 106 bits of mantissa. That's enough for the band of zooms just past the double-precision
+ * limit, at a few times the cost of plain doubles and without the set-up of a reference orbit.
+ * Everything is kept in local hi/lo pairs - nothing is allocated per pixel or per iteration.
+ * (Error-free transformations after Dekker and Knuth: twoSum, and twoProd using Dekker's split.) */
+public class DoubleDoubleKernel extends FractalKernel {
+	
+	// 2^27 + 1, for splitting a double into two halves whose products are exact
+	private static final double SPLIT = 134217729.0;
+	
+	private final boolean julia;
+	private final double juliaX;
+	private final double juliaY;
+	
+	// Centre of the viewport, as hi + lo. Rows come in as offsets from it.
+	private final double centreXHi;
+	private final double centreXLo;
+	private final double centreYHi;
+	private final double centreYLo;
+	
+	private DoubleDoubleKernel(boolean julia, double juliaX, double juliaY,
+			double centreXHi, double centreXLo, double centreYHi, double centreYLo) {
+		super(julia ? JuliaKernel.ITERATION_BASE : MandelbrotKernel.ITERATION_BASE,
+				julia ? JuliaKernel.ITERATION_CONSTANT_FACTOR : MandelbrotKernel.ITERATION_CONSTANT_FACTOR);
+		this.julia = julia;
+		this.juliaX = juliaX;
+		this.juliaY = juliaY;
+		this.centreXHi = centreXHi;
+		this.centreXLo = centreXLo;
+		this.centreYHi = centreYHi;
+		this.centreYLo = centreYLo;
+	}
+	
+	public static DoubleDoubleKernel forMandelbrot() {
+		return new DoubleDoubleKernel(false, 0, 0, 0, 0, 0, 0);
+	}
+	
+	public static DoubleDoubleKernel forJulia(double juliaX, double juliaY) {
+		return new DoubleDoubleKernel(true, juliaX, juliaY, 0, 0, 0, 0);
+	}
+	
+	public Symmetry getSymmetry() {
+		return julia ? Symmetry.ORIGIN : Symmetry.REAL_AXIS;
+	}
+	
+	public FractalKernel getDoubleDoubleKernel() {
+		return this;
+	}
+	
+	public boolean usesReferenceCoordinates() {
+		return true;
+	}
+	
+	/* Split the viewport centre into hi + lo pairs */
+	public FractalKernel prepare(Viewport viewport, int maxIterations) {
+		BigDecimal centreX = viewport.getCentreX();
+		BigDecimal centreY = viewport.getCentreY();
+		double xHi = centreX.doubleValue();
+		double yHi = centreY.doubleValue();
+		
+		return new DoubleDoubleKernel(julia, juliaX, juliaY,
+				xHi, centreX.subtract(new BigDecimal(xHi)).doubleValue(),
+				yHi, centreY.subtract(new BigDecimal(yHi)).doubleValue());
+	}
+	
+	
+	/* ci, cr0 and dcr are offsets from the viewport centre (see usesReferenceCoordinates()).
+	 * No cardioid/bulb check here - at these depths a double can't place a point on either side of their edges. */
+	public int computeRow(double ci, double cr0, double dcr, int count, int maxIterations, int[] iterOut, float[] fractionOut) {
+		int iterationNr;
+		int shortCircuited = 0;
+		
+		double xHi, xLo, yHi, yLo;
+		double checkXHi, checkXLo, checkYHi, checkYLo;
+		int checkAt;
+		
+		// Scratch for the error-free transformations
+		double s, v, e, t, aHi, aLo, bHi, bLo;
+		double xxHi, xxLo, yyHi, yyLo, xyHi, xyLo;
+		
+		final double epsilon = dcr * PERIODICITY_TOLERANCE;
+		
+		// Imaginary part of the point is the same along the row: centreY + ci
+		s = centreYHi + ci;
+		v = s - centreYHi;
+		e = (centreYHi - (s - v)) + (ci - v) + centreYLo;
+		final double rowYHi = s + e;
+		final double rowYLo = e - (rowYHi - s);
+		
+		for (int i = 0; i < count; i++) {
+			// Real part of the point: centreX + offset
+			final double offset = cr0 + ((double)i * dcr);
+			s = centreXHi + offset;
+			v = s - centreXHi;
+			e = (centreXHi - (s - v)) + (offset - v) + centreXLo;
+			final double pointXHi = s + e;
+			final double pointXLo = e - (pointXHi - s);
+			
+			// c is the point for the Mandelbrot set, the parameter for Julia sets
+			final double cxHi, cxLo, cyHi, cyLo;
+			if (julia) {
+				cxHi = juliaX; cxLo = 0;
+				cyHi = juliaY; cyLo = 0;
+			}
+			else {
+				cxHi = pointXHi; cxLo = pointXLo;
+				cyHi = rowYHi; cyLo = rowYLo;
+			}
+			
+			// Start at the point
+			xHi = pointXHi; xLo = pointXLo;
+			yHi = rowYHi; yLo = rowYLo;
+			
+			// Brent-style cycle detection - compare against a saved point, moved on at powers of two
+			checkXHi = xHi; checkXLo = xLo;
+			checkYHi = yHi; checkYLo = yLo;
+			checkAt = 1;
+			
+			for (iterationNr=0; iterationNr<maxIterations; iterationNr++) {
+				// Split the high parts, for exact products
+				t = SPLIT * xHi;
+				aHi = t - (t - xHi);
+				aLo = xHi - aHi;
+				t = SPLIT * yHi;
+				bHi = t - (t - yHi);
+				bLo = yHi - bHi;
+				
+				// x^2
+				xxHi = xHi * xHi;
+				xxLo = ((aHi * aHi - xxHi) + 2 * aHi * aLo) + aLo * aLo;
+				xxLo += 2 * xHi * xLo;
+				
+				// y^2
+				yyHi = yHi * yHi;
+				yyLo = ((bHi * bHi - yyHi) + 2 * bHi * bLo) + bLo * bLo;
+				yyLo += 2 * yHi * yLo;
+				
+				// x*y
+				xyHi = xHi * yHi;
+				xyLo = ((aHi * bHi - xyHi) + aHi * bLo + aLo * bHi) + aLo * bLo;
+				xyLo += xHi * yLo + xLo * yHi;
+				
+				// New x = x^2 - y^2 + cx
+				s = xxHi - yyHi;
+				v = s - xxHi;
+				e = (xxHi - (s - v)) + (-yyHi - v) + (xxLo - yyLo);
+				t = s + e;
+				e = e - (t - s);
+				s = t + cxHi;
+				v = s - t;
+				e = (t - (s - v)) + (cxHi - v) + e + cxLo;
+				xHi = s + e;
+				xLo = e - (xHi - s);
+				
+				// New y = 2xy + cy (doubling is exact)
+				s = 2 * xyHi + cyHi;
+				v = s - 2 * xyHi;
+				e = (2 * xyHi - (s - v)) + (cyHi - v) + 2 * xyLo + cyLo;
+				yHi = s + e;
+				yLo = e - (yHi - s);
+				
+				// Well known result: if distance is >2, escapes to infinity... 
+				// (Carried on out to the escape radius, for the smooth escape value.)
+				if ( (xHi*xHi + yHi*yHi) > ESCAPE_RADIUS_SQUARED) {
+					break;
+				}
+				
+				// Orbit has come back on itself - it's never going to escape
+				if (Math.abs((xHi - checkXHi) + (xLo - checkXLo)) < epsilon &&
+						Math.abs((yHi - checkYHi) + (yLo - checkYLo)) < epsilon) {
+					iterationNr = maxIterations;
+					shortCircuited++;
+					break;
+				}
+				
+				if (iterationNr == checkAt) {
+					checkXHi = xHi; checkXLo = xLo;
+					checkYHi = yHi; checkYLo = yLo;
+					checkAt <<= 1;
+				}
+			}
+			
+			iterOut[i] = iterationNr;
+			if (fractionOut != null)
+				fractionOut[i] = (iterationNr < maxIterations ? escapeFraction(xHi*xHi + yHi*yHi, LN_QUADRATIC) : 0);
+		}
+		
+		return shortCircuited;
+	}
+}
@@ -0,0 +1,111 @@
+package uk.ac.ed.inf.mandelbrotmaps.engine;
+
+/* z -> z^2 + c in single precision, for the Mandelbrot and Julia sets.
+ * Zoomed out (the home view, the little views) a float is still far finer than a pixel,
+ * and the cheaper maths lets those renders finish sooner. */
+public class FloatKernel extends FractalKernel {
+	
+	private final boolean julia;
+	private final boolean checkBulbs;
+	private final float juliaX;
+	private final float juliaY;
+	
+	private FloatKernel(boolean julia, boolean checkBulbs, double juliaX, double juliaY) {
+		super(julia ? JuliaKernel.ITERATION_BASE : MandelbrotKernel.ITERATION_BASE,
+				julia ? JuliaKernel.ITERATION_CONSTANT_FACTOR : MandelbrotKernel.ITERATION_CONSTANT_FACTOR);
+		this.julia = julia;
+		this.checkBulbs = checkBulbs;
+		this.juliaX = (float)juliaX;
+		this.juliaY = (float)juliaY;
+	}
+	
+	public static FloatKernel forMandelbrot(boolean checkBulbs) {
+		return new FloatKernel(false, checkBulbs, 0, 0);
+	}
+	
+	public static FloatKernel forJulia(double juliaX, double juliaY) {
+		return new FloatKernel(true, false, juliaX, juliaY);
+	}
+	
+	public Symmetry getSymmetry() {
+		return julia ? Symmetry.ORIGIN : Symmetry.REAL_AXIS;
+	}
+	
+	public FractalKernel getFloatKernel() {
+		return this;
+	}
+	
+	public int computeRow(double ci, double cr0, double dcr, int count, int maxIterations, int[] iterOut, float[] fractionOut) {
+		int iterationNr;
+		float newx, newy;
+		float x, y;
+		float checkX, checkY;
+		int checkAt;
+		int shortCircuited = 0;
+		
+		final float epsilon = (float)(dcr * PERIODICITY_TOLERANCE);
+		
+		// Imaginary part of the point is fixed along the row
+		final float y0 = (float)ci;
+		
+		for (int i = 0; i < count; i++) {
+			final double pointX = cr0 + ((double)i * dcr);
+			final float x0 = (float)pointX;
+			
+			if (checkBulbs && MandelbrotKernel.inMainCardioidOrBulb(pointX, ci)) {
+				iterOut[i] = maxIterations;
+				if (fractionOut != null)
+					fractionOut[i] = 0;
+				shortCircuited++;
+				continue;
+			}
+			
+			// c is the point for the Mandelbrot set, the parameter for Julia sets
+			final float cx = julia ? juliaX : x0;
+			final float cy = julia ? juliaY : y0;
+			
+			// Start at the point
+			x = x0;
+			y = y0;
+			
+			// Brent-style cycle detection - compare against a saved point, moved on at powers of two
+			checkX = x;
+			checkY = y;
+			checkAt = 1;
+			
+			for (iterationNr=0; iterationNr<maxIterations; iterationNr++) {
+				// z^2 + c
+				newx = (x*x) - (y*y) + cx;
+				newy = (2 * x * y) + cy;
+				
+				x = newx;
+				y = newy;
+				
+				// Well known result: if distance is >2, escapes to infinity... 
+				// (Carried on out to the escape radius, for the smooth escape value.)
+				if ( (x*x + y*y) > ESCAPE_RADIUS_SQUARED) {
+					break;
+				}
+				
+				// Orbit has come back on itself - it's never going to escape
+				if (Math.abs(x - checkX) < epsilon && Math.abs(y - checkY) < epsilon) {
+					iterationNr = maxIterations;
+					shortCircuited++;
+					break;
+				}
+				
+				if (iterationNr == checkAt) {
+					checkX = x;
+					checkY = y;
+					checkAt <<= 1;
+				}
+			}
+			
+			iterOut[i] = iterationNr;
+			if (fractionOut != null)
+				fractionOut[i] = (iterationNr < maxIterations ? escapeFraction((double)(x*x + y*y), LN_QUADRATIC) : 0);
+		}
+		
+		return shortCircuited;
+	}
+}
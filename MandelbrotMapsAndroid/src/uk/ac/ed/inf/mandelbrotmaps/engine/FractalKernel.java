@@ -0,0 +1,128 @@
+package uk.ac.ed.inf.mandelbrotmaps.engine;
+
+/* The escape-time maths for a single fractal type, free of any Android dependencies. */
+public abstract class FractalKernel {
+	
+	// How many iterations, at the very fewest, will we do?
+	public static final int MIN_ITERATIONS = 10;
+	
+	// ...and at the most? (Only reached past the double-precision limit, where the curve runs away.)
+	public static final int MAX_ITERATIONS = 250000;
+	
+	// Below this ln(pixelSize), a float is too coarse to be trusted to tell neighbouring pixels apart.
+	public static final double FLOAT_PRECISION_LN_PIXEL = -9;
+	
+	// Below this ln(pixelSize), doubles start getting iteration counts wrong near the boundary: rounding
+	// builds up over the orbit until it's bigger than a pixel. Measured for the Mandelbrot set against
+	// double-doubles, zooming in along the boundary - under 1% of pixels differ down to here.
+	public static final double DOUBLE_PRECISION_LN_PIXEL = -17;
+	
+	// ...and below this, neither can double-doubles (about 106 bits, so ~1e-28 either side of 1).
+	public static final double DOUBLE_DOUBLE_PRECISION_LN_PIXEL = -64;
+	
+	// Points count as escaped once |z|^2 passes this. Anything past 2 would do for the iteration count, 
+	// but going on to |z| > 256 makes the fractional escape value (see escapeFraction()) smooth.
+	protected static final double ESCAPE_RADIUS_SQUARED = 256.0 * 256.0;
+	private static final double LN_ESCAPE_RADIUS = Math.log(256.0);
+	
+	// ln of the power z is raised to each iteration, for z^2 + c
+	protected static final double LN_QUADRATIC = Math.log(2);
+	
+	// Detail level is abstracted for convenience - dividing by this gets the useful number.
+	private static final double DETAIL_DIVISOR = 50;
+	
+	// An orbit that comes back within this fraction of a sample's width of an earlier 
+	// point is taken to have settled into a cycle, so the point is inside the set.
+	protected static final double PERIODICITY_TOLERANCE = 1.0 / 1024;
+	
+	// Constants for iteration number calculations, determined empirically per fractal
+	private final double iterationBase;
+	private final double iterationConstantFactor;
+	
+	protected FractalKernel(double iterationBase, double iterationConstantFactor) {
+		this.iterationBase = iterationBase;
+		this.iterationConstantFactor = iterationConstantFactor;
+	}
+	
+	/* How many iterations to perform?
+	 * Empirically determined to be generally exponentially rising, as a function of x = |ln(pixelSize)|
+	 * ie, maxIterations ~ a(b^x)
+	 * a, b determined empirically for each fractal type. */
+	public int getMaxIterations(double pixelSize, double detail) {
+		double absLnPixelSize = Math.abs(Math.log(pixelSize));
+		
+		double dblIterations = (detail/DETAIL_DIVISOR) * iterationConstantFactor * Math.pow(iterationBase, absLnPixelSize);
+		
+		int iterationsToPerform = (int)Math.min(dblIterations, MAX_ITERATIONS);
+		
+		return Math.max(iterationsToPerform, MIN_ITERATIONS);
+	}
+	
+	/* Deepest ln(pixelSize) this fractal comes out right at in plain doubles (see Precision) */
+	public double getDoublePrecisionLnPixel() {
+		return DOUBLE_PRECISION_LN_PIXEL;
+	}
+	
+	/* A kernel that computes the same fractal past the double-precision limit, 
+	 * or null if there isn't one (in which case zooming stops at the limit). */
+	public FractalKernel getDeepKernel() {
+		return null;
+	}
+	
+	/* A kernel that computes the same fractal in single precision, for shallow zooms, 
+	 * or null if there isn't one. */
+	public FractalKernel getFloatKernel() {
+		return null;
+	}
+	
+	/* A kernel that computes the same fractal in double-double arithmetic, for the band of zooms 
+	 * just past the double-precision limit, or null if there isn't one. */
+	public FractalKernel getDoubleDoubleKernel() {
+		return null;
+	}
+	
+	/* Called once per render, before any rows are computed. Kernels that need per-frame 
+	 * set-up (a reference orbit, say) return a copy ready for this viewport; 
+	 * the rest just return themselves. */
+	public FractalKernel prepare(Viewport viewport, int maxIterations) {
+		return this;
+	}
+	
+	/* How many iterations at the start of every orbit this kernel skips, as prepared (0 for most) */
+	public int getSkippedIterations() {
+		return 0;
+	}
+	
+	/* A symmetry of the fractal, for renders to mirror pixels by instead of iterating them (see MirrorPlan) */
+	public Symmetry getSymmetry() {
+		return Symmetry.NONE;
+	}
+	
+	/* Do rows take their coordinates as offsets from the viewport's centre (see Viewport.getDeltaX()),
+	 * rather than as absolute positions? */
+	public boolean usesReferenceCoordinates() {
+		return false;
+	}
+	
+	/* Iterate a run of count points along one row of the complex plane, starting at (cr0, ci) 
+	 * and stepping dcr along the real axis each time.
+	 * Writes the iteration at which each point escaped (or maxIterations if it never did)
+	 * into iterOut[0..count-1], and, if fractionOut isn't null, how far through that iteration 
+	 * it escaped into fractionOut (see escapeFraction()). Whole rows at a time lets the loop invariants stay put.
+	 * Returns how many of the points were found to be inside without using the whole iteration budget. */
+	public abstract int computeRow(double ci, double cr0, double dcr, int count, int maxIterations, int[] iterOut, float[] fractionOut);
+	
+	/* The fractional part of a point's smooth escape value, in [0, 1): iterations + this changes continuously 
+	 * across the image, instead of in steps. magnitude is |z|^2 when it passed the escape radius; 
+	 * lnDegree the ln of the power z is raised to each iteration. */
+	protected static float escapeFraction(double magnitude, double lnDegree) {
+		// ln|z| / ln(radius) runs from 1 (only just escaped) up to the degree (escaped by as much as it can)
+		double fraction = 1 - (Math.log(0.5 * Math.log(magnitude) / LN_ESCAPE_RADIUS) / lnDegree);
+		
+		if (fraction < 0)
+			return 0;
+		if (fraction >= 1)
+			return 0.99999f;
+		return (float)fraction;
+	}
+}
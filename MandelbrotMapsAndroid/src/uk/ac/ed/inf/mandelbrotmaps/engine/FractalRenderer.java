@@ -0,0 +1,656 @@
+package uk.ac.ed.inf.mandelbrotmaps.engine;
+
+import uk.ac.ed.inf.mandelbrotmaps.colouring.ColouringScheme;
+import uk.ac.ed.inf.mandelbrotmaps.colouring.DefaultColouringScheme;
+
+/* Pure-Java render core. Runs a kernel over a viewport and writes the coloured
+ * result into a caller-supplied frame, so the same maths can be used on a plain JVM. */
+public class FractalRenderer {
+	
+	// Block size of a fully computed pixel
+	public static final int DEFAULT_PIXEL_SIZE = 1;
+	
+	// Block size of a pixel shown from the disk tier (see TileCache.restore()) but not yet recomputed: 
+	// no coarser than any coarse pass, so only the detailed render goes over it
+	public static final int UNVERIFIED_PIXEL_SIZE = 2;
+	
+	// Block size of a pixel nothing has been calculated for yet - coarser than any real block.
+	// Block sizes are kept a byte per pixel, so this is as big as one gets.
+	public static final byte UNSET_PIXEL_SIZE = Byte.MAX_VALUE;
+	
+	// Iteration count of a pixel whose colour didn't come from an iteration count (so can't be recoloured)
+	public static final int NOT_ITERATED = -1;
+	
+	// Rough width and height of the tiles renders are shared out in (rounded up to whole blocks)
+	static final int TILE_SIZE = 64;
+	
+	private volatile FractalKernel kernel;
+	private volatile ColouringScheme colourer = new DefaultColouringScheme();
+	private volatile boolean smoothColouring = false;
+	
+	// Where finished renders are kept for next time (may be null)
+	private volatile TileCache tileCache;
+	
+	// Totals since the last reset, across every thread
+	private final RenderStatistics statistics = new RenderStatistics();
+	
+	// The kernel as last prepared, and what it was prepared for - shared by every thread rendering that frame
+	private FractalKernel preparedKernel;
+	private Precision preparedPrecision;
+	private FractalKernel preparedFrom;
+	private Viewport preparedViewport;
+	private int preparedMaxIterations;
+	
+	// The colouring scheme's palette as last built, and what it was built for
+	private int[] palette;
+	private ColouringScheme paletteScheme;
+	private int paletteMaxIterations;
+	
+	public FractalRenderer(FractalKernel kernel) {
+		this.kernel = kernel;
+	}
+	
+	public FractalKernel getKernel() {
+		return kernel;
+	}
+	
+	public void setKernel(FractalKernel newKernel) {
+		kernel = newKernel;
+	}
+	
+	public ColouringScheme getColouringScheme() {
+		return colourer;
+	}
+	
+	public void setColouringScheme(ColouringScheme newColourer) {
+		colourer = newColourer;
+	}
+	
+	/* Blend each escaped pixel's colour towards the next iteration's by its escape fraction? */
+	public boolean isSmoothColouring() {
+		return smoothColouring;
+	}
+	
+	public void setSmoothColouring(boolean smooth) {
+		smoothColouring = smooth;
+	}
+	
+	public void setTileCache(TileCache cache) {
+		tileCache = cache;
+	}
+	
+	public RenderStatistics getStatistics() {
+		return statistics;
+	}
+	
+	public int getMaxIterations(double pixelSize, double detail) {
+		return kernel.getMaxIterations(pixelSize, detail);
+	}
+	
+	
+	/* Pick the cheapest precision that's still correct for this pixel size (see Precision).
+	 * If the fractal has no kernel at that precision, the next more precise one it has is used -
+	 * or, failing that, the most precise one it has at all. */
+	public Precision selectPrecision(double pixelSize) {
+		return selectPrecision(kernel, pixelSize);
+	}
+	
+	private static Precision selectPrecision(FractalKernel base, double pixelSize) {
+		Precision[] ladder = Precision.values();
+		Precision wanted = Precision.forLnPixelSize(Math.log(pixelSize), base);
+		
+		for (int i = wanted.ordinal(); i < ladder.length; i++) {
+			if (ladder[i].kernelFrom(base) != null)
+				return ladder[i];
+		}
+		for (int i = wanted.ordinal() - 1; i >= 0; i--) {
+			if (ladder[i].kernelFrom(base) != null)
+				return ladder[i];
+		}
+		return Precision.DOUBLE;
+	}
+	
+	/* Deepest ln(pixelSize) the current fractal can be rendered at correctly */
+	public double getMaxZoomLnPixel() {
+		FractalKernel base = kernel;
+		Precision[] ladder = Precision.values();
+		
+		for (int i = ladder.length - 1; i > 0; i--) {
+			if (ladder[i].kernelFrom(base) != null)
+				return ladder[i].getLimitLnPixel(base);
+		}
+		return ladder[0].getLimitLnPixel(base);
+	}
+	
+	
+	/* The kernel to render this viewport with (see selectPrecision()), prepared for it. 
+	 * The first thread to ask does the preparation; the rest rendering the same frame 
+	 * get the same prepared kernel. */
+	synchronized FractalKernel prepareKernel(Viewport viewport, int maxIterations) {
+		FractalKernel base = kernel;
+		
+		if (preparedKernel != null && preparedFrom == base && 
+				preparedMaxIterations == maxIterations && viewport.equals(preparedViewport)) {
+			statistics.setPrecision(preparedPrecision, base);
+			statistics.setSkippedIterations(preparedKernel.getSkippedIterations());
+			return preparedKernel;
+		}
+		
+		preparedPrecision = selectPrecision(base, viewport.getPixelSize());
+		preparedKernel = preparedPrecision.kernelFrom(base).prepare(viewport, maxIterations);
+		preparedFrom = base;
+		preparedViewport = viewport;
+		preparedMaxIterations = maxIterations;
+		statistics.setPrecision(preparedPrecision, base);
+		statistics.setSkippedIterations(preparedKernel.getSkippedIterations());
+		return preparedKernel;
+	}
+	
+	
+	/* The current colouring scheme's colours for every iteration count up to maxIterations 
+	 * (see ColouringScheme.buildPalette()), built by the first thread to ask and shared 
+	 * until the scheme or the limit changes. */
+	synchronized int[] getPalette(int maxIterations) {
+		ColouringScheme scheme = colourer;
+		
+		if (palette == null || paletteScheme != scheme || paletteMaxIterations != maxIterations) {
+			palette = scheme.buildPalette(maxIterations);
+			paletteScheme = scheme;
+			paletteMaxIterations = maxIterations;
+		}
+		return palette;
+	}
+	
+	
+	/* Real part of column x's coordinate, in whichever form the kernel takes it */
+	static double rowX(FractalKernel kernel, Viewport viewport, int x) {
+		return kernel.usesReferenceCoordinates() ? viewport.getDeltaX(x) : viewport.getX(x);
+	}
+	
+	/* Imaginary part of row y's coordinate, in whichever form the kernel takes it */
+	static double rowY(FractalKernel kernel, Viewport viewport, int y) {
+		return kernel.usesReferenceCoordinates() ? viewport.getDeltaY(y) : viewport.getY(y);
+	}
+	
+	
+	/* Keep a finished render's iteration counts in the tile cache, if there is one, for restoreTiles().
+	 * guessing and subdivided say how the render was made. */
+	public void storeTiles(Viewport viewport, int maxIterations, SolidGuessing guessing, boolean subdivided, int[] iterations, float[] fractions) {
+		TileCache cache = tileCache;
+		if (cache == null || iterations == null)
+			return;
+		
+		FractalKernel base = kernel;
+		cache.store(new TileCache.Level(base, viewport, maxIterations, selectPrecision(base, viewport.getPixelSize()), guessing, subdivided), 
+				viewport, iterations, fractions);
+	}
+	
+	/* Bring whatever the tile cache's disk store has of this viewport into memory, for restoreTiles() to use.
+	 * Reads files, so call it from a render thread. Returns how many tiles were read. */
+	public int loadTiles(Viewport viewport, int maxIterations, SolidGuessing guessing, boolean subdivided) {
+		TileCache cache = tileCache;
+		if (cache == null)
+			return 0;
+		
+		FractalKernel base = kernel;
+		return cache.load(new TileCache.Level(base, viewport, maxIterations, selectPrecision(base, viewport.getPixelSize()), guessing, subdivided), 
+				viewport);
+	}
+	
+	/* Fill in whatever the tile cache has in memory of this viewport, from renders made with the same guessing and 
+	 * subdivision, in the current colours, marking those pixels exact so that renders of it skip them. 
+	 * Doesn't touch the disk, so it's safe on the UI thread. Returns how many pixels were filled in. */
+	public int restoreTiles(Viewport viewport, int maxIterations, SolidGuessing guessing, boolean subdivided, 
+			int[] frame, int[] iterations, float[] fractions, byte[] pixelSizes) {
+		TileCache cache = tileCache;
+		if (cache == null || iterations == null || pixelSizes == null)
+			return 0;
+		
+		FractalKernel base = kernel;
+		int restored = cache.restore(new TileCache.Level(base, viewport, maxIterations, selectPrecision(base, viewport.getPixelSize()), guessing, subdivided), 
+				viewport, getPalette(maxIterations), smoothColouring, frame, iterations, fractions, pixelSizes);
+		
+		statistics.addCached(restored);
+		return restored;
+	}
+	
+	
+	/* Render a whole viewport on the calling thread, with no interruption or block tracking. */
+	public void renderFrame(Viewport viewport, int maxIterations, int[] frame) {
+		TilePool tiles = newTilePool(viewport.getWidth(), viewport.getHeight(), DEFAULT_PIXEL_SIZE, false);
+		computePixels(viewport, maxIterations, DEFAULT_PIXEL_SIZE, tiles, frame, null, null, null, SolidGuessing.OFF, null, 0);
+	}
+	
+	
+	/* Tiles to share a render out between threads with. Tiles for block renders are a whole 
+	 * number of blocks across; subdivided renders work in full-width bands. */
+	public TilePool newTilePool(int width, int height, int pixelBlockSize, boolean subdivide) {
+		if (subdivide)
+			return new TilePool(width, height, width, MarianiSilverRenderer.BAND_HEIGHT);
+		
+		int tileSize = pixelBlockSize * ((TILE_SIZE + pixelBlockSize - 1) / pixelBlockSize);
+		return new TilePool(width, height, tileSize, tileSize);
+	}
+	
+	
+	/* Renders tiles from the pool at full resolution by rectangle subdivision, until there are none left,
+	 * only iterating the pixels needed to tell that a region is uniform.
+	 * The pool should come from newTilePool(), with subdivide set.
+	 * Arguments and return value are as for computePixels(). */
+	public boolean computePixelsSubdivided(
+			final Viewport viewport,
+			final int maxIterations,
+			final TilePool tiles,
+			final int[] frame,
+			final int[] iterations,
+			final float[] fractions,
+			final byte[] pixelSizes,
+			final RenderObserver observer,
+			final int progressInterval
+		) {
+		final FractalKernel kernel = prepareKernel(viewport, maxIterations);
+		
+		// Mirroring is done a whole band at a time
+		MirrorPlan mirror = MirrorPlan.forPass(kernel, viewport, DEFAULT_PIXEL_SIZE);
+		if (mirror != null)
+			mirror = mirror.inBands(MarianiSilverRenderer.BAND_HEIGHT);
+		
+		MarianiSilverRenderer subdivider = new MarianiSilverRenderer(kernel, getPalette(maxIterations), smoothColouring, 
+				mirror, viewport, maxIterations, frame, iterations, fractions, pixelSizes, observer);
+		
+		boolean completed = subdivider.render(tiles, observer != null && progressInterval > 0);
+		
+		statistics.add(subdivider.pixelsComputed, subdivider.pixelsShortCircuited);
+		statistics.addMirrored(subdivider.pixelsMirrored);
+		return completed;
+	}
+	
+	
+	/* Computes tiles from the pool, putting colours in the frame, until there are none left.
+	 * Any number of threads can work from the same pool at once.
+	 * If iterations is non-null, each pixel's iteration count goes in it too, so the frame can 
+	 * be recoloured later without iterating again (see recolourPixels()); likewise its escape 
+	 * fraction (see FractalKernel.escapeFraction()) in fractions, if that's non-null.
+	 * If pixelSizes is non-null, it tracks the block size each pixel was last computed at, and
+	 * pixels already computed at the requested size or finer are skipped. Blocks sit on a grid 
+	 * aligned to the image's top-left, so a run of block sizes that each divide the last 
+	 * (see progressive refinement in the views) only ever computes each sample once.
+	 * With solid guessing on (and pixelSizes and iterations tracked), samples inside a cell of the grid twice as 
+	 * coarse whose corners are all exact and all took the same number of iterations are filled in without iterating.
+	 * For fractals with a symmetry, samples on the smaller side of an axis that's on screen are filled in 
+	 * from their mirror image as it's computed (see MirrorPlan).
+	 * Returns false if the observer aborted the render part way through. */
+	public boolean computePixels(
+			final Viewport viewport,
+			final int maxIterations,
+			final int pixelBlockSize,  // Pixel "blockiness"
+			final TilePool tiles,  // From newTilePool(), for the same block size
+			final int[] frame,
+			final int[] iterations,  // May be null
+			final float[] fractions,  // May be null
+			final byte[] pixelSizes,  // May be null
+			final SolidGuessing guessing,
+			final RenderObserver observer,  // May be null, if nothing needs to watch or interrupt
+			final int progressInterval  // How many rows' worth of pixels between calls to showProgress() (0 for never)
+		) {
+		final FractalKernel kernel = prepareKernel(viewport, maxIterations);
+		final int[] palette = getPalette(maxIterations);
+		final boolean smooth = smoothColouring;
+		
+		final int imgWidth = viewport.getWidth();
+		final int imgHeight = viewport.getHeight();
+		
+		// Samples that will be filled in from their partners, if the axis of symmetry is on the grid
+		final MirrorPlan mirror = MirrorPlan.forPass(kernel, viewport, pixelBlockSize);
+		
+		// Row-invariant step along the real axis between computed samples
+		final double dcr = viewport.getPixelSize() * (double)pixelBlockSize;
+		
+		// Iteration counts (and escape fractions, if wanted) for a run of samples, filled in by the kernel a run at a time
+		final int[] rowIterations = new int[imgWidth];
+		final float[] rowFractions = (smooth || fractions != null ? new float[imgWidth] : null);
+		
+		// Guessing needs to know which pixels are exact. Cells are the previous level's grid; 
+		// tiles are a whole number of them, so every cell a thread guesses in is its own.
+		final boolean guess = (guessing != SolidGuessing.OFF && pixelSizes != null && iterations != null);
+		final int cellSize = pixelBlockSize * 2;
+		final int[] spotIterations = new int[1];
+		final float[] spotFraction = (rowFractions != null ? new float[1] : null);
+		
+		int xPixel = 0, yPixel = 0;
+		
+		// Kept locally and added to the shared statistics once, at the end
+		long pixelsComputed = 0;
+		long pixelsShortCircuited = 0;
+		long pixelsGuessed = 0;
+		long pixelsMirrored = 0;
+		long pixelsSinceProgress = 0;
+		
+		int tile;
+		while ((tile = tiles.takeTile()) >= 0) {
+			// Whole blocks only - a block hanging off the edge of the image is left out
+			final int xPixelEnd = Math.min(tiles.getRight(tile), imgWidth+1-pixelBlockSize);
+			final int yPixelEnd = Math.min(tiles.getBottom(tile), imgHeight+1-pixelBlockSize);
+			
+			for (yPixel = tiles.getTop(tile); yPixel < yPixelEnd; yPixel += pixelBlockSize) {
+				// Detect rendering abortion.
+				if (observer != null && observer.abortSignalled()) {
+					// Rows of the tile it got through are done
+					if (progressInterval > 0) {
+						showFinished(observer, mirror, pixelBlockSize, tiles.getLeft(tile), tiles.getTop(tile), tiles.getRight(tile), yPixel);
+						observer.showProgress();
+					}
+					statistics.add(pixelsComputed, pixelsShortCircuited);
+					statistics.addGuessed(pixelsGuessed);
+					statistics.addMirrored(pixelsMirrored);
+					return false;
+				}
+				
+				// Imaginary part of c is the same along the whole row
+				final double ci = rowY(kernel, viewport, yPixel);
+				
+				// Gather runs of samples that still need computing, and hand each to the kernel in one go
+				int runStart = 0;
+				int runLength = 0;
+				for (xPixel = tiles.getLeft(tile); ; xPixel += pixelBlockSize) {
+					//Skip past pixels already iterated to the necessary block size
+					boolean needed = (xPixel < xPixelEnd && 
+							(pixelSizes == null || pixelSizes[(imgWidth*yPixel) + xPixel] > pixelBlockSize));
+					
+					if (mirror != null && xPixel < xPixelEnd) {
+						if (needed && mirror.isMirrored(xPixel, yPixel)) {
+							// Its partner fills it in
+							needed = false;
+						}
+						else if (!needed && mirrorExact(mirror, frame, iterations, fractions, pixelSizes, imgWidth, xPixel, yPixel, pixelBlockSize)) {
+							// Already exact (kept from a drag), but its partner isn't
+							pixelsMirrored++;
+						}
+					}
+					
+					if (needed && guess) {
+						spotIterations[0] = NOT_ITERATED;
+						int guessedIterations = guessIterations(kernel, palette, viewport, maxIterations, guessing, cellSize, xPixel, yPixel, 
+								frame, iterations, fractions, pixelSizes, spotIterations, spotFraction, smooth);
+						
+						// The cell's centre may have been iterated to check the guess
+						if (spotIterations[0] >= 0)
+							pixelsComputed++;
+						
+						if (guessedIterations != NO_GUESS) {
+							float guessedFraction = (fractions != null ? guessFraction(fractions, imgWidth, cellSize, xPixel, yPixel) : 0);
+							if (fillSample(mirror, frame, iterations, fractions, pixelSizes, imgWidth, xPixel, yPixel, pixelBlockSize, 
+									colourPoint(palette, maxIterations, guessedIterations, (smooth ? guessedFraction : 0)), 
+									guessedIterations, guessedFraction))
+								pixelsMirrored++;
+							pixelsGuessed++;
+							pixelsSinceProgress += pixelBlockSize * pixelBlockSize;
+							needed = false;
+						}
+					}
+					
+					if (needed) {
+						if (runLength == 0)
+							runStart = xPixel;
+						runLength++;
+						continue;
+					}
+					
+					if (runLength > 0) {
+						pixelsShortCircuited += kernel.computeRow(ci, rowX(kernel, viewport, runStart), dcr, runLength, maxIterations, rowIterations, rowFractions);
+						pixelsComputed += runLength;
+						pixelsSinceProgress += runLength * pixelBlockSize * pixelBlockSize;
+						
+						// Abandoned while the run was iterating - leave the image to whatever's replaced this render
+						if (observer != null && observer.abortSignalled())
+							break;
+						
+						for (int i = 0; i < runLength; i++) {
+							int pointIterations = rowIterations[i];
+							float pointFraction = (rowFractions != null ? rowFractions[i] : 0);
+							if (fillSample(mirror, frame, iterations, fractions, pixelSizes, imgWidth, runStart + (i * pixelBlockSize), yPixel, pixelBlockSize, 
+									colourPoint(palette, maxIterations, pointIterations, (smooth ? pointFraction : 0)), 
+									pointIterations, pointFraction))
+								pixelsMirrored++;
+						}
+						runLength = 0;
+					}
+					
+					if (xPixel >= xPixelEnd)
+						break;
+				}
+			}
+			
+			// Publish the finished tile straight away, and show thread's work in progress every so often
+			if (observer != null && progressInterval > 0) {
+				showFinished(observer, mirror, pixelBlockSize, tiles.getLeft(tile), tiles.getTop(tile), tiles.getRight(tile), tiles.getBottom(tile));
+				if (pixelsSinceProgress >= (long)progressInterval * imgWidth) {
+					observer.showProgress();
+					pixelsSinceProgress = 0;
+				}
+			}
+		}
+		
+		// ...and whatever it's done since it last did
+		if (observer != null && progressInterval > 0 && pixelsSinceProgress > 0)
+			observer.showProgress();
+		
+		statistics.add(pixelsComputed, pixelsShortCircuited);
+		statistics.addGuessed(pixelsGuessed);
+		statistics.addMirrored(pixelsMirrored);
+		return true;
+	}
+	
+	
+	/* Tell the observer the rectangle from (left, top) to (right, bottom), exclusive, is finished - and, 
+	 * if samples in it were mirrored, the rectangle their partners are in too. Blocks are pixelBlockSize square. */
+	static void showFinished(RenderObserver observer, MirrorPlan mirror, int pixelBlockSize, int left, int top, int right, int bottom) {
+		if (left >= right || top >= bottom)
+			return;
+		
+		observer.finishedRect(left, top, right, bottom);
+		if (mirror != null) {
+			final int partnerLeft = Math.min(mirror.mirrorX(left), mirror.mirrorX(right - 1));
+			final int partnerRight = Math.max(mirror.mirrorX(left), mirror.mirrorX(right - 1)) + pixelBlockSize;
+			observer.finishedRect(partnerLeft, mirror.mirrorY(bottom - 1), partnerRight, mirror.mirrorY(top) + pixelBlockSize);
+		}
+	}
+	
+	/* fillBlock() for the sample at (x, y), and for its partner too if that's been left to be mirrored from it.
+	 * Returns true if the partner was filled. */
+	private static boolean fillSample(MirrorPlan mirror, int[] frame, int[] iterations, float[] fractions, byte[] pixelSizes, int imgWidth, 
+			int x, int y, int pixelBlockSize, int colourCodeHex, int pointIterations, float pointFraction) {
+		fillBlock(frame, iterations, fractions, pixelSizes, imgWidth, x, y, pixelBlockSize, colourCodeHex, pointIterations, pointFraction);
+		
+		if (mirror == null)
+			return false;
+		
+		final int partnerX = mirror.mirrorX(x);
+		final int partnerY = mirror.mirrorY(y);
+		if (!mirror.isMirrored(partnerX, partnerY))
+			return false;
+		
+		fillBlock(frame, iterations, fractions, pixelSizes, imgWidth, partnerX, partnerY, pixelBlockSize, colourCodeHex, pointIterations, pointFraction);
+		return true;
+	}
+	
+	/* Copy the sample at (x, y) to its partner, if it's exact and its partner has been left to be mirrored 
+	 * from it and isn't as fine as this pass. Returns true if it was copied. Anything less than exact 
+	 * (an unverified tile from the cache, say) is left alone: it's iterated in a later pass, and fillSample() does the partner then. */
+	private static boolean mirrorExact(MirrorPlan mirror, int[] frame, int[] iterations, float[] fractions, byte[] pixelSizes, int imgWidth, 
+			int x, int y, int pixelBlockSize) {
+		final int index = (imgWidth*y) + x;
+		if (pixelSizes[index] != DEFAULT_PIXEL_SIZE)
+			return false;
+		
+		final int partnerX = mirror.mirrorX(x);
+		final int partnerY = mirror.mirrorY(y);
+		if (!mirror.isMirrored(partnerX, partnerY) || pixelSizes[(imgWidth*partnerY) + partnerX] <= pixelBlockSize)
+			return false;
+		
+		fillBlock(frame, iterations, fractions, pixelSizes, imgWidth, partnerX, partnerY, pixelBlockSize, frame[index], 
+				(iterations != null ? iterations[index] : NOT_ITERATED), (fractions != null ? fractions[index] : 0));
+		return true;
+	}
+	
+	
+	/* Save colour info for the block whose top-left sample is at (x, y). int, interpreted: 0xAARRGGBB
+	 * The sample itself is now exact; the rest of the block is only an approximation, at this block size. */
+	private static void fillBlock(int[] frame, int[] iterations, float[] fractions, byte[] pixelSizes, int imgWidth, 
+			int x, int y, int pixelBlockSize, int colourCodeHex, int pointIterations, float pointFraction) {
+		//Note that the pixel being calculated has been calculated in full (upper left of a block)
+		if(pixelSizes != null)
+			pixelSizes[(imgWidth*y) + x] = DEFAULT_PIXEL_SIZE;
+		
+		int p = 0;
+		for (int pixelBlockA=0; pixelBlockA<pixelBlockSize; pixelBlockA++) {
+			for (int pixelBlockB=0; pixelBlockB<pixelBlockSize; pixelBlockB++) {
+				int index = imgWidth*(y+pixelBlockB) + (x+pixelBlockA);
+				if(pixelSizes != null) {
+					if(p++ != 0) {
+						// Don't paint over anything already as fine as this block (an earlier level, or kept from a drag)
+						if(pixelSizes[index] <= pixelBlockSize)
+							continue;
+						pixelSizes[index] = (byte)pixelBlockSize;
+					}
+				}
+				frame[index] = colourCodeHex;
+				if(iterations != null)
+					iterations[index] = pointIterations;
+				if(fractions != null)
+					fractions[index] = pointFraction;
+			}
+		}
+	}
+	
+	
+	/* A point's colour from the palette. A fraction above zero blends it that far towards 
+	 * the next iteration's colour, so colours change smoothly instead of in bands. */
+	static int colourPoint(int[] palette, int maxIterations, int pointIterations, float fraction) {
+		// Nothing to blend with - inside the set, or the last colour before it
+		if (fraction <= 0 || pointIterations + 1 >= maxIterations)
+			return palette[pointIterations];
+		
+		final int from = palette[pointIterations];
+		final int to = palette[pointIterations + 1];
+		final int weight = (int)(fraction * 256);
+		
+		final int red = ((((from >> 16) & 0xFF) * (256 - weight)) + (((to >> 16) & 0xFF) * weight)) >> 8;
+		final int green = ((((from >> 8) & 0xFF) * (256 - weight)) + (((to >> 8) & 0xFF) * weight)) >> 8;
+		final int blue = (((from & 0xFF) * (256 - weight)) + ((to & 0xFF) * weight)) >> 8;
+		
+		return (from & 0xFF000000) | (red << 16) | (green << 8) | blue;
+	}
+	
+	
+	// Returned by guessIterations() when the sample has to be iterated
+	private static final int NO_GUESS = NOT_ITERATED;
+	
+	/* Solid guessing: the iteration count the sample at (x, y) can be filled with without iterating it, or NO_GUESS.
+	 * It can be guessed if the four corners of the coarse cell it's in are exact and all took the same number of iterations.
+	 * When verifying, the cell's centre must agree as well - if it hasn't been computed yet it's iterated 
+	 * (and filled in) now, and spotIterations[0] set to its iteration count. The centre itself is never guessed. */
+	private static int guessIterations(FractalKernel kernel, int[] palette, Viewport viewport, int maxIterations, 
+			SolidGuessing guessing, int cellSize, int x, int y, int[] frame, int[] iterations, float[] fractions, byte[] pixelSizes, 
+			int[] spotIterations, float[] spotFraction, boolean smooth) {
+		final int imgWidth = viewport.getWidth();
+		final int x0 = x - (x % cellSize);
+		final int y0 = y - (y % cellSize);
+		final int x1 = x0 + cellSize;
+		final int y1 = y0 + cellSize;
+		
+		// Cells hanging off the edge of the image don't have all their corners
+		if (x1 >= imgWidth || y1 >= viewport.getHeight())
+			return NO_GUESS;
+		
+		final int topLeft = (imgWidth*y0) + x0;
+		final int topRight = (imgWidth*y0) + x1;
+		final int bottomLeft = (imgWidth*y1) + x0;
+		final int bottomRight = (imgWidth*y1) + x1;
+		
+		if (pixelSizes[topLeft] != DEFAULT_PIXEL_SIZE || pixelSizes[topRight] != DEFAULT_PIXEL_SIZE ||
+				pixelSizes[bottomLeft] != DEFAULT_PIXEL_SIZE || pixelSizes[bottomRight] != DEFAULT_PIXEL_SIZE)
+			return NO_GUESS;
+		
+		final int value = iterations[topLeft];
+		if (iterations[topRight] != value || iterations[bottomLeft] != value || iterations[bottomRight] != value)
+			return NO_GUESS;
+		
+		if (guessing == SolidGuessing.VERIFIED) {
+			final int half = cellSize / 2;
+			final int xCentre = x0 + half;
+			final int yCentre = y0 + half;
+			if (x == xCentre && y == yCentre)
+				return NO_GUESS;
+			
+			final int centre = (imgWidth*yCentre) + xCentre;
+			if (pixelSizes[centre] != DEFAULT_PIXEL_SIZE) {
+				kernel.computeRow(rowY(kernel, viewport, yCentre), rowX(kernel, viewport, xCentre), 0, 1, maxIterations, spotIterations, spotFraction);
+				
+				int centreIterations = spotIterations[0];
+				float centreFraction = (spotFraction != null ? spotFraction[0] : 0);
+				fillBlock(frame, iterations, fractions, pixelSizes, imgWidth, xCentre, yCentre, half, 
+						colourPoint(palette, maxIterations, centreIterations, (smooth ? centreFraction : 0)), centreIterations, centreFraction);
+			}
+			
+			if (iterations[centre] != value)
+				return NO_GUESS;
+		}
+		
+		return value;
+	}
+	
+	/* The escape fraction for a guessed sample: the escape value changes smoothly across a cell 
+	 * whose corners all took the same number of iterations, so it's interpolated between theirs. */
+	private static float guessFraction(float[] fractions, int imgWidth, int cellSize, int x, int y) {
+		final int x0 = x - (x % cellSize);
+		final int y0 = y - (y % cellSize);
+		final float across = (float)(x - x0) / cellSize;
+		final float down = (float)(y - y0) / cellSize;
+		
+		final float top = fractions[(imgWidth*y0) + x0] + across * (fractions[(imgWidth*y0) + x0 + cellSize] - fractions[(imgWidth*y0) + x0]);
+		final float bottom = fractions[(imgWidth*(y0 + cellSize)) + x0] + 
+				across * (fractions[(imgWidth*(y0 + cellSize)) + x0 + cellSize] - fractions[(imgWidth*(y0 + cellSize)) + x0]);
+		
+		return top + down * (bottom - top);
+	}
+	
+	
+	/* Recolours tiles from the pool with the current colouring scheme, from the iteration counts
+	 * (and escape fractions, if smooth colouring's on) kept by an earlier render, until there are none left. Nothing is iterated, so it's 
+	 * only as slow as reading and writing the arrays. Pixels that were never iterated are left alone.
+	 * Any number of threads can work from the same pool at once.
+	 * Returns false if the observer aborted part way through. */
+	public boolean recolourPixels(
+			final TilePool tiles,  // From newTilePool(), for full resolution
+			final int imgWidth,
+			final int maxIterations,  // As the iteration counts were computed with
+			final int[] iterations,
+			final float[] fractions,  // May be null
+			final int[] frame,
+			final RenderObserver observer  // May be null
+		) {
+		final int[] palette = getPalette(maxIterations);
+		final boolean smooth = (smoothColouring && fractions != null);
+		
+		int tile;
+		while ((tile = tiles.takeTile()) >= 0) {
+			if (observer != null && observer.abortSignalled())
+				return false;
+			
+			final int right = tiles.getRight(tile);
+			for (int y = tiles.getTop(tile); y < tiles.getBottom(tile); y++) {
+				final int rowEnd = (imgWidth*y) + right;
+				for (int index = (imgWidth*y) + tiles.getLeft(tile); index < rowEnd; index++) {
+					final int pointIterations = iterations[index];
+					if (pointIterations == NOT_ITERATED)
+						continue;
+					
+					frame[index] = (smooth ? colourPoint(palette, maxIterations, pointIterations, fractions[index]) : palette[pointIterations]);
+				}
+			}
+		}
+		
+		return true;
+	}
+}
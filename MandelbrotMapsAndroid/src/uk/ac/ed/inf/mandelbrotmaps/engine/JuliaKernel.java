@@ -0,0 +1,110 @@
+package uk.ac.ed.inf.mandelbrotmaps.engine;
+
+/* z -> z^2 + c, starting from z = the point, with c fixed by the Julia parameter */
+public class JuliaKernel extends FractalKernel {
+	
+	// Empirically determined "maximum iteration" values for Julia sets.
+	static final double ITERATION_BASE = 1.58;
+	static final double ITERATION_CONSTANT_FACTOR = 6.46;
+	
+	// Julia orbits run far longer than the Mandelbrot set's at the same zoom, so rounding catches up 
+	// with doubles sooner - measured as for FractalKernel.DOUBLE_PRECISION_LN_PIXEL, at c = -0.8+0.156i.
+	static final double JULIA_DOUBLE_PRECISION_LN_PIXEL = -13;
+	
+	// Point paramaterising this Julia set
+	private final double juliaX;
+	private final double juliaY;
+	
+	public JuliaKernel(double juliaX, double juliaY) {
+		super(ITERATION_BASE, ITERATION_CONSTANT_FACTOR);
+		this.juliaX = juliaX;
+		this.juliaY = juliaY;
+	}
+	
+	public Symmetry getSymmetry() {
+		return Symmetry.ORIGIN;
+	}
+	
+	public double getDoublePrecisionLnPixel() {
+		return JULIA_DOUBLE_PRECISION_LN_PIXEL;
+	}
+	
+	public FractalKernel getFloatKernel() {
+		return FloatKernel.forJulia(juliaX, juliaY);
+	}
+	
+	public FractalKernel getDoubleDoubleKernel() {
+		return DoubleDoubleKernel.forJulia(juliaX, juliaY);
+	}
+	
+	public FractalKernel getDeepKernel() {
+		return PerturbationKernel.forJulia(juliaX, juliaY);
+	}
+	
+	public double getJuliaX() {
+		return juliaX;
+	}
+	
+	public double getJuliaY() {
+		return juliaY;
+	}
+	
+	public int computeRow(double ci, double cr0, double dcr, int count, int maxIterations, int[] iterOut, float[] fractionOut) {
+		int iterationNr;
+		double newx, newy;
+		double x, y;
+		double checkX, checkY;
+		int checkAt;
+		int shortCircuited = 0;
+		
+		final double epsilon = dcr * PERIODICITY_TOLERANCE;
+		
+		// Keep the parameter in locals so the loop doesn't keep going back to the fields
+		final double cx = juliaX;
+		final double cy = juliaY;
+		
+		for (int i = 0; i < count; i++) {
+			x = cr0 + ((double)i * dcr);
+			y = ci;
+			
+			// Brent-style cycle detection - compare against a saved point, moved on at powers of two
+			checkX = x;
+			checkY = y;
+			checkAt = 1;
+			
+			for (iterationNr=0; iterationNr<maxIterations; iterationNr++) {
+				// z^2 + c
+				newx = (x*x) - (y*y) + cx;
+				newy = (2 * x * y) + cy;
+			
+				x = newx;
+				y = newy;
+			
+				// Well known result: if distance is >2, escapes to infinity... 
+				// (Carried on out to the escape radius, for the smooth escape value.)
+				if ( (x*x + y*y) > ESCAPE_RADIUS_SQUARED) {
+					break;
+				}
+				
+				// Orbit has come back on itself - it's never going to escape
+				if (Math.abs(x - checkX) < epsilon && Math.abs(y - checkY) < epsilon) {
+					iterationNr = maxIterations;
+					shortCircuited++;
+					break;
+				}
+				
+				if (iterationNr == checkAt) {
+					checkX = x;
+					checkY = y;
+					checkAt <<= 1;
+				}
+			}
+			
+			iterOut[i] = iterationNr;
+			if (fractionOut != null)
+				fractionOut[i] = (iterationNr < maxIterations ? escapeFraction(x*x + y*y, LN_QUADRATIC) : 0);
+		}
+		
+		return shortCircuited;
+	}
+}
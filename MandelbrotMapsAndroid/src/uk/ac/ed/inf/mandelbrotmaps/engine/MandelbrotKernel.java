@@ -0,0 +1,128 @@
+package uk.ac.ed.inf.mandelbrotmaps.engine;
+
+/* z -> z^2 + c, starting from z = c */
+public class MandelbrotKernel extends FractalKernel {
+	
+	// Empirically determined "maximum iteration" values for Mandelbrot set.
+	static final double ITERATION_BASE = 1.24;
+	static final double ITERATION_CONSTANT_FACTOR = 54;
+	
+	// Skip straight past points in the main cardioid and period-2 bulb?
+	private final boolean checkBulbs;
+	
+	public MandelbrotKernel() {
+		this(true);
+	}
+	
+	public MandelbrotKernel(boolean checkBulbs) {
+		super(ITERATION_BASE, ITERATION_CONSTANT_FACTOR);
+		this.checkBulbs = checkBulbs;
+	}
+	
+	public Symmetry getSymmetry() {
+		return Symmetry.REAL_AXIS;
+	}
+	
+	public FractalKernel getFloatKernel() {
+		return FloatKernel.forMandelbrot(checkBulbs);
+	}
+	
+	public FractalKernel getDoubleDoubleKernel() {
+		return DoubleDoubleKernel.forMandelbrot();
+	}
+	
+	public FractalKernel getDeepKernel() {
+		return PerturbationKernel.forMandelbrot();
+	}
+	
+	public boolean isCheckingBulbs() {
+		return checkBulbs;
+	}
+	
+	/* Closed-form test for the two largest regions of the set - every point in them
+	 * would otherwise run all the way to maxIterations. */
+	static boolean inMainCardioidOrBulb(double x0, double y0) {
+		double ySquared = y0 * y0;
+		
+		// Main cardioid: q(q + (x - 1/4)) <= y^2/4, where q = (x - 1/4)^2 + y^2
+		double xShifted = x0 - 0.25;
+		double q = (xShifted * xShifted) + ySquared;
+		if (q * (q + xShifted) <= 0.25 * ySquared)
+			return true;
+		
+		// Period-2 bulb: circle of radius 1/4 around -1
+		double xPlusOne = x0 + 1;
+		return (xPlusOne * xPlusOne) + ySquared <= 0.0625;
+	}
+	
+	public int computeRow(double ci, double cr0, double dcr, int count, int maxIterations, int[] iterOut, float[] fractionOut) {
+		int iterationNr;
+		double newx, newy;
+		double x, y;
+		double checkX, checkY;
+		int checkAt;
+		int shortCircuited = 0;
+		
+		final double epsilon = dcr * PERIODICITY_TOLERANCE;
+		
+		// Imaginary part of c is fixed along the row
+		final double y0 = ci;
+		
+		for (int i = 0; i < count; i++) {
+			// Set x0 (real part of c)
+			final double x0 = cr0 + ((double)i * dcr);
+			
+			if (checkBulbs && inMainCardioidOrBulb(x0, y0)) {
+				iterOut[i] = maxIterations;
+				if (fractionOut != null)
+					fractionOut[i] = 0;
+				shortCircuited++;
+				continue;
+			}
+			
+			// Start at x0, y0
+			x = x0;
+			y = y0;
+			
+			// Brent-style cycle detection - compare against a saved point, moved on at powers of two
+			checkX = x;
+			checkY = y;
+			checkAt = 1;
+			
+			//Run iterations over this point
+			for (iterationNr=0; iterationNr<maxIterations; iterationNr++) {
+				// z^2 + c
+				newx = (x*x) - (y*y) + x0;
+				newy = (2 * x * y) + y0;
+			
+				x = newx;
+				y = newy;
+			
+				// Well known result: if distance is >2, escapes to infinity... 
+				// (Carried on out to the escape radius, for the smooth escape value.)
+				if ( (x*x + y*y) > ESCAPE_RADIUS_SQUARED) {
+					break;
+				}
+				
+				// Orbit has come back on itself - it's never going to escape
+				if (Math.abs(x - checkX) < epsilon && Math.abs(y - checkY) < epsilon) {
+					iterationNr = maxIterations;
+					shortCircuited++;
+					break;
+				}
+				
+				if (iterationNr == checkAt) {
+					checkX = x;
+					checkY = y;
+					checkAt <<= 1;
+				}
+			}
+			
+			iterOut[i] = iterationNr;
+			if (fractionOut != null)
+				fractionOut[i] = (iterationNr < maxIterations ? escapeFraction(x*x + y*y, LN_QUADRATIC) : 0);
+		}
+		
+		return shortCircuited;
+	}
+}
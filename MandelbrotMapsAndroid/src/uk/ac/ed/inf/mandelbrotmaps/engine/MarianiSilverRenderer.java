@@ -0,0 +1,369 @@
+package uk.ac.ed.inf.mandelbrotmaps.engine;
+
+/* Mariani-Silver rectangle subdivision. The image is shared out between threads in
+ * full-width bands, taken from a TilePool; each band is treated as a rectangle whose 
+ * border is computed first. If every border pixel took the same number of iterations, the whole rectangle is filled 
+ * with that count without iterating its interior. Otherwise it's split in four and each 
+ * quarter (whose borders are then mostly known already) is handled the same way.
+ * Bands left out by a MirrorPlan are filled in as the bands they mirror are copied into the frame. */
+class MarianiSilverRenderer {
+	
+	// Height of the bands the image is shared out between threads in (see FractalRenderer.newTilePool())
+	static final int BAND_HEIGHT = 64;
+	
+	// Rectangles this thin aren't worth splitting again - the interior is just computed
+	private static final int MIN_SUBDIVIDE_SIZE = 6;
+	
+	// Marks a pixel in the band that hasn't been computed yet
+	private static final int NOT_COMPUTED = -1;
+	
+	// Marks a pixel in a mirrored band that its partner fills in
+	private static final int MIRRORED = -2;
+	
+	private final FractalKernel kernel;
+	private final int[] palette;
+	private final boolean smooth;
+	private final MirrorPlan mirror;
+	private final Viewport viewport;
+	private final int maxIterations;
+	private final int[] frame;
+	private final int[] iterations;
+	private final float[] fractions;
+	private final byte[] pixelSizes;
+	private final RenderObserver observer;
+	
+	private final int imgWidth;
+	private final double pixelSize;
+	
+	// Iteration counts (and escape fractions) for the band being worked on, and scratch rows for the kernel
+	private final int[] bandIterations;
+	private final float[] bandFractions;
+	private final int[] rowIterations;
+	private final float[] rowFractions;
+	private int bandTop;
+	
+	private boolean aborted = false;
+	
+	long pixelsComputed = 0;
+	long pixelsShortCircuited = 0;
+	long pixelsMirrored = 0;
+	
+	/* mirror may be null; if not, it has to leave out whole bands (see MirrorPlan.inBands()) */
+	MarianiSilverRenderer(FractalKernel kernel, int[] palette, boolean smooth, MirrorPlan mirror, Viewport viewport, int maxIterations,
+			int[] frame, int[] iterations, float[] fractions, byte[] pixelSizes, RenderObserver observer) {
+		this.kernel = kernel;
+		this.palette = palette;
+		this.smooth = smooth;
+		this.mirror = mirror;
+		this.viewport = viewport;
+		this.maxIterations = maxIterations;
+		this.frame = frame;
+		this.iterations = iterations;
+		this.fractions = fractions;
+		this.pixelSizes = pixelSizes;
+		this.observer = observer;
+		
+		imgWidth = viewport.getWidth();
+		pixelSize = viewport.getPixelSize();
+		bandIterations = new int[imgWidth * BAND_HEIGHT];
+		rowIterations = new int[Math.max(imgWidth, BAND_HEIGHT)];
+		
+		// Only kept if something's going to use them
+		boolean keepFractions = (smooth || fractions != null);
+		bandFractions = (keepFractions ? new float[imgWidth * BAND_HEIGHT] : null);
+		rowFractions = (keepFractions ? new float[rowIterations.length] : null);
+	}
+	
+	
+	/* Render bands from the pool until there are none left. Returns false if the observer aborted the render. */
+	boolean render(TilePool bands, boolean showProgress) {
+		int band;
+		while ((band = bands.takeTile()) >= 0) {
+			if (observer != null && observer.abortSignalled())
+				return false;
+			
+			bandTop = bands.getTop(band);
+			int bandHeight = bands.getBottom(band) - bandTop;
+			
+			if (bandAlreadyComputed(bandHeight)) {
+				// ...but the band it mirrors onto may not be
+				if (mirror != null) {
+					mirrorBand(bandHeight);
+					if (showProgress)
+						showBand(bandHeight);
+				}
+				continue;
+			}
+			
+			if (mirror != null && mirror.skipsRows(bandTop, bandTop + bandHeight - 1))
+				renderMirroredBand(bandHeight);
+			else
+				renderBand(bandHeight);
+			
+			// (Even if it was aborted part way - anything it got as far as finishing is kept)
+			if (showProgress)
+				showBand(bandHeight);
+			if (aborted)
+				return false;
+		}
+		
+		return true;
+	}
+	
+	/* Publish the current band (and its mirror image) as finished, and show it */
+	private void showBand(int bandHeight) {
+		FractalRenderer.showFinished(observer, mirror, FractalRenderer.DEFAULT_PIXEL_SIZE, 0, bandTop, imgWidth, bandTop + bandHeight);
+		observer.showProgress();
+	}
+	
+	
+	/* After a drag, whole bands may already be done at full resolution */
+	private boolean bandAlreadyComputed(int bandHeight) {
+		if (pixelSizes == null)
+			return false;
+		
+		int end = (bandTop + bandHeight) * imgWidth;
+		for (int i = bandTop * imgWidth; i < end; i++) {
+			if (pixelSizes[i] > FractalRenderer.DEFAULT_PIXEL_SIZE)
+				return false;
+		}
+		return true;
+	}
+	
+	
+	private void renderBand(int bandHeight) {
+		int xMax = imgWidth - 1;
+		int yMax = bandHeight - 1;
+		
+		for (int i = 0; i < imgWidth * bandHeight; i++)
+			bandIterations[i] = NOT_COMPUTED;
+		
+		// Border of the whole band, then work inwards
+		computeRowSpan(0, 0, xMax);
+		computeRowSpan(yMax, 0, xMax);
+		computeColumnSpan(0, 1, yMax - 1);
+		computeColumnSpan(xMax, 1, yMax - 1);
+		
+		subdivide(0, 0, xMax, yMax);
+		
+		// Abandoned while the band was being worked on - leave the image to whatever's replaced this render
+		if (aborted || (observer != null && observer.abortSignalled())) {
+			aborted = true;
+			return;
+		}
+		
+		// Colour the band and copy it into the frame
+		for (int y = 0; y < bandHeight; y++) {
+			int frameRow = (bandTop + y) * imgWidth;
+			int bandRow = y * imgWidth;
+			if (iterations != null)
+				System.arraycopy(bandIterations, bandRow, iterations, frameRow, imgWidth);
+			if (fractions != null)
+				System.arraycopy(bandFractions, bandRow, fractions, frameRow, imgWidth);
+			
+			for (int x = 0; x < imgWidth; x++) {
+				frame[frameRow + x] = (smooth ? 
+						FractalRenderer.colourPoint(palette, maxIterations, bandIterations[bandRow + x], bandFractions[bandRow + x]) : 
+						palette[bandIterations[bandRow + x]]);
+				
+				if (pixelSizes != null)
+					pixelSizes[frameRow + x] = FractalRenderer.DEFAULT_PIXEL_SIZE;
+			}
+		}
+		
+		if (mirror != null)
+			mirrorBand(bandHeight);
+	}
+	
+	
+	/* A band whose rows mirror onto others: only the pixels whose partners are off the image are 
+	 * computed here (row by row, as there's little of it), the rest being left for their partners to fill in. */
+	private void renderMirroredBand(int bandHeight) {
+		for (int y = 0; y < bandHeight; y++) {
+			int row = y * imgWidth;
+			for (int x = 0; x < imgWidth; x++)
+				bandIterations[row + x] = (mirror.isMirrored(x, bandTop + y) ? MIRRORED : NOT_COMPUTED);
+			
+			computeRowSpan(y, 0, imgWidth - 1);
+			
+			if (observer != null && observer.abortSignalled()) {
+				aborted = true;
+				return;
+			}
+		}
+		
+		for (int y = 0; y < bandHeight; y++) {
+			int frameRow = (bandTop + y) * imgWidth;
+			int bandRow = y * imgWidth;
+			
+			for (int x = 0; x < imgWidth; x++) {
+				if (bandIterations[bandRow + x] == MIRRORED)
+					continue;
+				
+				storePixel(frameRow + x, bandIterations[bandRow + x], (bandFractions != null ? bandFractions[bandRow + x] : 0));
+			}
+		}
+	}
+	
+	
+	/* Copy the band's pixels, now in the frame, to any partners left out to be mirrored from them */
+	private void mirrorBand(int bandHeight) {
+		for (int y = bandTop; y < bandTop + bandHeight; y++) {
+			int partnerY = mirror.mirrorY(y);
+			
+			for (int x = 0; x < imgWidth; x++) {
+				int partnerX = mirror.mirrorX(x);
+				if (!mirror.isMirrored(partnerX, partnerY))
+					continue;
+				
+				int index = (y * imgWidth) + x;
+				int partner = (partnerY * imgWidth) + partnerX;
+				frame[partner] = frame[index];
+				if (iterations != null)
+					iterations[partner] = iterations[index];
+				if (fractions != null)
+					fractions[partner] = fractions[index];
+				if (pixelSizes != null)
+					pixelSizes[partner] = FractalRenderer.DEFAULT_PIXEL_SIZE;
+				pixelsMirrored++;
+			}
+		}
+	}
+	
+	
+	/* Colour a finished pixel into the frame, along with everything kept about it */
+	private void storePixel(int index, int pointIterations, float pointFraction) {
+		frame[index] = (smooth ? FractalRenderer.colourPoint(palette, maxIterations, pointIterations, pointFraction) : palette[pointIterations]);
+		if (iterations != null)
+			iterations[index] = pointIterations;
+		if (fractions != null)
+			fractions[index] = pointFraction;
+		if (pixelSizes != null)
+			pixelSizes[index] = FractalRenderer.DEFAULT_PIXEL_SIZE;
+	}
+	
+	
+	/* Handle the rectangle (x0, y0)-(x1, y1), inclusive, whose border is already computed */
+	private void subdivide(int x0, int y0, int x1, int y1) {
+		if (observer != null && observer.abortSignalled()) {
+			aborted = true;
+			return;
+		}
+		
+		// Nothing inside the border - nothing to do
+		if (x1 - x0 < 2 || y1 - y0 < 2)
+			return;
+		
+		int uniformValue = uniformBorderValue(x0, y0, x1, y1);
+		if (uniformValue != NOT_COMPUTED) {
+			for (int y = y0 + 1; y < y1; y++) {
+				int row = y * imgWidth;
+				for (int x = x0 + 1; x < x1; x++)
+					bandIterations[row + x] = uniformValue;
+			}
+			if (bandFractions != null)
+				interpolateFractions(x0, y0, x1, y1);
+			return;
+		}
+		
+		// Too small to be worth splitting again
+		if (x1 - x0 <= MIN_SUBDIVIDE_SIZE || y1 - y0 <= MIN_SUBDIVIDE_SIZE) {
+			for (int y = y0 + 1; y < y1; y++)
+				computeRowSpan(y, x0 + 1, x1 - 1);
+			return;
+		}
+		
+		// Split into quarters, computing the lines that divide them
+		int midX = (x0 + x1) / 2;
+		int midY = (y0 + y1) / 2;
+		computeRowSpan(midY, x0 + 1, x1 - 1);
+		computeColumnSpan(midX, y0 + 1, y1 - 1);
+		
+		subdivide(x0, y0, midX, midY);
+		subdivide(midX, y0, x1, midY);
+		subdivide(x0, midY, midX, y1);
+		subdivide(midX, midY, x1, y1);
+	}
+	
+	
+	/* Returns the shared iteration count of the border, or NOT_COMPUTED if it varies */
+	private int uniformBorderValue(int x0, int y0, int x1, int y1) {
+		int value = bandIterations[(y0 * imgWidth) + x0];
+		
+		for (int x = x0; x <= x1; x++) {
+			if (bandIterations[(y0 * imgWidth) + x] != value || bandIterations[(y1 * imgWidth) + x] != value)
+				return NOT_COMPUTED;
+		}
+		for (int y = y0 + 1; y < y1; y++) {
+			if (bandIterations[(y * imgWidth) + x0] != value || bandIterations[(y * imgWidth) + x1] != value)
+				return NOT_COMPUTED;
+		}
+		
+		return value;
+	}
+	
+	
+	/* Fill the interior of a uniform rectangle's escape fractions in from its corners. The smooth 
+	 * escape value changes gradually across a rectangle whose border took the same number of 
+	 * iterations, so this stands in for the fractions that would have been computed. */
+	private void interpolateFractions(int x0, int y0, int x1, int y1) {
+		final float topLeft = bandFractions[(y0 * imgWidth) + x0];
+		final float topRight = bandFractions[(y0 * imgWidth) + x1];
+		final float bottomLeft = bandFractions[(y1 * imgWidth) + x0];
+		final float bottomRight = bandFractions[(y1 * imgWidth) + x1];
+		
+		for (int y = y0 + 1; y < y1; y++) {
+			float down = (float)(y - y0) / (y1 - y0);
+			float left = topLeft + down * (bottomLeft - topLeft);
+			float right = topRight + down * (bottomRight - topRight);
+			
+			int row = y * imgWidth;
+			for (int x = x0 + 1; x < x1; x++)
+				bandFractions[row + x] = left + ((float)(x - x0) / (x1 - x0)) * (right - left);
+		}
+	}
+	
+	
+	/* Compute any pixels in row y, from xFrom to xTo inclusive, that aren't known yet */
+	private void computeRowSpan(int y, int xFrom, int xTo) {
+		int row = y * imgWidth;
+		double ci = FractalRenderer.rowY(kernel, viewport, bandTop + y);
+		
+		int x = xFrom;
+		while (x <= xTo) {
+			if (bandIterations[row + x] != NOT_COMPUTED) {
+				x++;
+				continue;
+			}
+			
+			int runStart = x;
+			while (x <= xTo && bandIterations[row + x] == NOT_COMPUTED)
+				x++;
+			int runLength = x - runStart;
+			
+			pixelsShortCircuited += kernel.computeRow(ci, FractalRenderer.rowX(kernel, viewport, runStart), pixelSize, runLength, maxIterations, rowIterations, rowFractions);
+			pixelsComputed += runLength;
+			System.arraycopy(rowIterations, 0, bandIterations, row + runStart, runLength);
+			if (rowFractions != null)
+				System.arraycopy(rowFractions, 0, bandFractions, row + runStart, runLength);
+		}
+	}
+	
+	
+	/* Compute any pixels in column x, from yFrom to yTo inclusive, that aren't known yet */
+	private void computeColumnSpan(int x, int yFrom, int yTo) {
+		double cr = FractalRenderer.rowX(kernel, viewport, x);
+		
+		for (int y = yFrom; y <= yTo; y++) {
+			int index = (y * imgWidth) + x;
+			if (bandIterations[index] != NOT_COMPUTED)
+				continue;
+			
+			pixelsShortCircuited += kernel.computeRow(FractalRenderer.rowY(kernel, viewport, bandTop + y), cr, pixelSize, 1, maxIterations, rowIterations, rowFractions);
+			pixelsComputed++;
+			bandIterations[index] = rowIterations[0];
+			if (rowFractions != null)
+				bandFractions[index] = rowFractions[0];
+		}
+	}
+}
@@ -0,0 +1,145 @@
+package uk.ac.ed.inf.mandelbrotmaps.engine;
+
+import java.math.BigDecimal;
+
+/* Which samples of a pass can be filled in from their mirror image instead of being iterated, 
+ * for kernels with a Symmetry. Only planned when the axis (or centre) of symmetry is on screen and 
+ * falls exactly on the sample grid, so that each sample's mirror image is exactly another sample.
+ * The rows on the smaller side of the axis are then left out, and each of their samples is filled 
+ * in by whichever thread computes its partner on the other side. */
+final class MirrorPlan {
+	
+	// How far off the grid (in pixels) the axis can be and still count as on it - rounding, no more
+	private static final double ALIGNMENT_TOLERANCE = 1e-6;
+	
+	// Returned by mirrorLine() when there's no usable line
+	private static final long NO_LINE = Long.MIN_VALUE;
+	
+	// (x, y)'s partner is (xLine - x, yLine - y), or just (x, yLine - y) for the real axis
+	private final boolean rotate;
+	private final int xLine;
+	private final int yLine;
+	
+	// Rows left for their partners to fill in, inclusive
+	private final int skipTop;
+	private final int skipBottom;
+	
+	// Samples at or past these would hang off the edge of the image (see FractalRenderer.computePixels())
+	private final int xEnd;
+	private final int yEnd;
+	
+	private MirrorPlan(boolean rotate, int xLine, int yLine, int skipTop, int skipBottom, int xEnd, int yEnd) {
+		this.rotate = rotate;
+		this.xLine = xLine;
+		this.yLine = yLine;
+		this.skipTop = skipTop;
+		this.skipBottom = skipBottom;
+		this.xEnd = xEnd;
+		this.yEnd = yEnd;
+	}
+	
+	/* The plan for a pass at this block size, or null if this pass can't use the kernel's symmetry */
+	static MirrorPlan forPass(FractalKernel kernel, Viewport viewport, int pixelBlockSize) {
+		final Symmetry symmetry = kernel.getSymmetry();
+		if (symmetry == Symmetry.NONE)
+			return null;
+		
+		final int width = viewport.getWidth();
+		final int height = viewport.getHeight();
+		final double pixelSize = viewport.getPixelSize();
+		
+		// Top and left edges are exact, as the rows at deep zooms may be nearer the axis than the origin's precision
+		final double top = viewport.getOriginY().add(new BigDecimal(viewport.getYMax())).doubleValue();
+		final double left = viewport.getOriginX().add(new BigDecimal(viewport.getXMin())).doubleValue();
+		
+		// Row y is at top - y*pixelSize, so it mirrors onto row (2*top/pixelSize - y)
+		long yLine = mirrorLine(2 * top / pixelSize, height, pixelBlockSize);
+		if (yLine == NO_LINE)
+			return null;
+		
+		int xLine = 0;
+		if (symmetry == Symmetry.ORIGIN) {
+			// Column x is at left + x*pixelSize, so it rotates onto column (-2*left/pixelSize - x)
+			long line = mirrorLine(-2 * left / pixelSize, width, pixelBlockSize);
+			if (line == NO_LINE)
+				return null;
+			xLine = (int)line;
+		}
+		
+		// Leave out whichever side of the axis is smaller - its rows all have partners on the other side
+		final int line = (int)yLine;
+		final int rowsAbove = Math.min(height, (line + 1) / 2);
+		final int rowsBelow = height - (line / 2) - 1;
+		
+		final int skipTop, skipBottom;
+		if (rowsAbove <= rowsBelow) {
+			skipTop = 0;
+			skipBottom = rowsAbove - 1;
+		}
+		else {
+			skipTop = (line / 2) + 1;
+			skipBottom = height - 1;
+		}
+		
+		if (skipBottom < skipTop)
+			return null;
+		
+		return new MirrorPlan(symmetry == Symmetry.ORIGIN, xLine, line, skipTop, skipBottom, 
+				width + 1 - pixelBlockSize, height + 1 - pixelBlockSize);
+	}
+	
+	/* The sum of each sample's coordinate and its partner's, from its exact (floating point) value, 
+	 * or NO_LINE if that's not a whole number of blocks, or the line is off the image. */
+	private static long mirrorLine(double exactLine, int size, int pixelBlockSize) {
+		final long line = Math.round(exactLine);
+		if (Math.abs(exactLine - line) > ALIGNMENT_TOLERANCE)
+			return NO_LINE;
+		
+		// Samples either side of the line have to land on samples of the same grid
+		if (line % pixelBlockSize != 0)
+			return NO_LINE;
+		
+		if (line < 0 || line > 2 * (long)(size - 1))
+			return NO_LINE;
+		
+		return line;
+	}
+	
+	/* The same plan, with the rows left out cut down to whole bands of this height (counted 
+	 * from the top of the image), for renderers that share the image out in bands. Null if there are none. */
+	MirrorPlan inBands(int bandHeight) {
+		final int top = ((skipTop + bandHeight - 1) / bandHeight) * bandHeight;
+		
+		// The last band is only as tall as what's left of the image
+		final int bottom = (skipBottom == yEnd - 1) ? skipBottom : (((skipBottom + 1) / bandHeight) * bandHeight) - 1;
+		
+		if (bottom < top)
+			return null;
+		
+		return new MirrorPlan(rotate, xLine, yLine, top, bottom, xEnd, yEnd);
+	}
+	
+	int mirrorX(int x) {
+		return rotate ? xLine - x : x;
+	}
+	
+	int mirrorY(int y) {
+		return yLine - y;
+	}
+	
+	/* Is the sample at (x, y) left out, to be filled in from its partner? */
+	boolean isMirrored(int x, int y) {
+		if (y < skipTop || y > skipBottom || x < 0 || x >= xEnd)
+			return false;
+		
+		// The partner has to be a sample that's computed
+		final int partnerX = mirrorX(x);
+		final int partnerY = mirrorY(y);
+		return partnerX >= 0 && partnerX < xEnd && partnerY >= 0 && partnerY < yEnd;
+	}
+	
+	/* Are all of rows top to bottom (inclusive) left out, at least where their partners are on screen? */
+	boolean skipsRows(int top, int bottom) {
+		return top >= skipTop && bottom <= skipBottom;
+	}
+}
@@ -0,0 +1,402 @@
+package uk.ac.ed.inf.mandelbrotmaps.engine;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+
+/* Deep-zoom kernel for the quadratic Mandelbrot and Julia sets.
+ * One reference orbit Z is computed to whatever precision the zoom needs, then every pixel is
+ * iterated as a double-precision difference from it:
+ *   d(n+1) = 2 Z(n) d(n) + d(n)^2 (+ dc, for the Mandelbrot set)
+ * which stays accurate because d is small compared to the pixel spacing's magnitude, not the point's.
+ * When a pixel's orbit gets nearer zero than the reference's difference (where the difference 
+ * loses its precision - a "glitch"), or the reference runs out, the pixel is rebased onto the start
+ * of the reference orbit and carries on.
+ * Early on, every pixel's difference follows the reference closely enough to be given by a short
+ * series in its starting offset, so those iterations are skipped altogether (see computeSeries()). */
+public class PerturbationKernel extends FractalKernel {
+	
+	// How deep this kernel can go - past here even the differences start to underflow usefulness.
+	public static final double MAX_DEPTH_LN_PIXEL = -115;
+	
+	// Reference points tried, as fractions of the viewport, if the centre escapes early
+	private static final double[] REFERENCE_CANDIDATES = new double[] {0, 0.25, -0.25, 0.125, -0.125, 0.375, -0.375};
+	
+	// Extra decimal digits carried in the reference orbit beyond the pixel size
+	private static final int EXTRA_DIGITS = 10;
+	
+	// How far the series may stray from a probe's real difference, relative to that difference,
+	// before it's no longer trusted. Neighbouring pixels only differ by about 1/width of it, and 
+	// near the boundary any error is magnified over the iterations still to come - so keep it tiny.
+	private static final double SERIES_TOLERANCE = 1e-10;
+	
+	// No series: d = 1*d0 + 0*d0^2 + 0*d0^3
+	private static final double[] NO_SERIES = new double[] {1, 0, 0, 0, 0, 0};
+	
+	private final boolean julia;
+	private final double juliaX;
+	private final double juliaY;
+	
+	// The reference orbit (as doubles - they only need to be as accurate as the differences)
+	// and its offset from the viewport centre. Null until prepared.
+	private final double[] referenceX;
+	private final double[] referenceY;
+	private final int referenceLength;
+	private final double referenceOffsetX;
+	private final double referenceOffsetY;
+	
+	// Series coefficients {A, B, C} (as real/imaginary pairs) giving a pixel's difference 
+	// after skippedIterations as A*d0 + B*d0^2 + C*d0^3, where d0 is its starting offset
+	private final double[] series;
+	private final int skippedIterations;
+	
+	private PerturbationKernel(boolean julia, double juliaX, double juliaY, 
+			double[] referenceX, double[] referenceY, int referenceLength, double referenceOffsetX, double referenceOffsetY,
+			double[] series, int skippedIterations) {
+		super(julia ? JuliaKernel.ITERATION_BASE : MandelbrotKernel.ITERATION_BASE,
+				julia ? JuliaKernel.ITERATION_CONSTANT_FACTOR : MandelbrotKernel.ITERATION_CONSTANT_FACTOR);
+		this.julia = julia;
+		this.juliaX = juliaX;
+		this.juliaY = juliaY;
+		this.referenceX = referenceX;
+		this.referenceY = referenceY;
+		this.referenceLength = referenceLength;
+		this.referenceOffsetX = referenceOffsetX;
+		this.referenceOffsetY = referenceOffsetY;
+		this.series = series;
+		this.skippedIterations = skippedIterations;
+	}
+	
+	public static PerturbationKernel forMandelbrot() {
+		return new PerturbationKernel(false, 0, 0, null, null, 0, 0, 0, NO_SERIES, 0);
+	}
+	
+	public static PerturbationKernel forJulia(double juliaX, double juliaY) {
+		return new PerturbationKernel(true, juliaX, juliaY, null, null, 0, 0, 0, NO_SERIES, 0);
+	}
+	
+	public Symmetry getSymmetry() {
+		return julia ? Symmetry.ORIGIN : Symmetry.REAL_AXIS;
+	}
+	
+	public FractalKernel getDeepKernel() {
+		return this;
+	}
+	
+	public boolean usesReferenceCoordinates() {
+		return true;
+	}
+	
+	/* Length of the reference orbit in use (debug info) */
+	public int getReferenceLength() {
+		return referenceLength;
+	}
+	
+	/* Iterations skipped by the series approximation */
+	public int getSkippedIterations() {
+		return skippedIterations;
+	}
+	
+	
+	/* Compute a reference orbit for this viewport. Tries the centre first, then a few other 
+	 * points if the centre escapes too soon to be much use, keeping whichever lasted longest. */
+	public FractalKernel prepare(Viewport viewport, int maxIterations) {
+		int digits = (int)Math.ceil(-viewport.getLnPixelSize() / Math.log(10)) + EXTRA_DIGITS;
+		MathContext mc = new MathContext(Math.max(digits, 20));
+		
+		double spanX = viewport.getPixelSize() * viewport.getWidth();
+		double spanY = viewport.getPixelSize() * viewport.getHeight();
+		
+		double[] bestX = null, bestY = null;
+		int bestLength = -1;
+		double bestOffsetX = 0, bestOffsetY = 0;
+		
+		for (int i = 0; i < REFERENCE_CANDIDATES.length && bestLength <= maxIterations; i++) {
+			for (int j = 0; j < REFERENCE_CANDIDATES.length && bestLength <= maxIterations; j++) {
+				// Only try points other than the centre along the two diagonals, to keep this cheap
+				if (i != j && i != 0)
+					continue;
+				
+				double offsetX = REFERENCE_CANDIDATES[i] * spanX;
+				double offsetY = REFERENCE_CANDIDATES[j] * spanY;
+				
+				double[] orbitX = new double[maxIterations + 2];
+				double[] orbitY = new double[maxIterations + 2];
+				int length = computeReferenceOrbit(
+						viewport.getCentreX().add(new BigDecimal(offsetX), mc),
+						viewport.getCentreY().add(new BigDecimal(offsetY), mc),
+						maxIterations, mc, orbitX, orbitY);
+				
+				if (length > bestLength) {
+					bestX = orbitX;
+					bestY = orbitY;
+					bestLength = length;
+					bestOffsetX = offsetX;
+					bestOffsetY = offsetY;
+				}
+			}
+		}
+		
+		// Probe the edges and corners of the viewport to see how far the series can be trusted
+		int width = viewport.getWidth();
+		int height = viewport.getHeight();
+		int[] probeColumns = new int[] {0, width/2, width-1};
+		int[] probeRows = new int[] {0, height/2, height-1};
+		double[] probeX = new double[8];
+		double[] probeY = new double[8];
+		int probes = 0;
+		for (int row : probeRows) {
+			for (int column : probeColumns) {
+				if (row == height/2 && column == width/2)
+					continue;
+				probeX[probes] = viewport.getDeltaX(column) - bestOffsetX;
+				probeY[probes] = viewport.getDeltaY(row) - bestOffsetY;
+				probes++;
+			}
+		}
+		
+		double[] bestSeries = NO_SERIES.clone();
+		int skipped = computeSeries(bestX, bestY, bestLength, maxIterations, probeX, probeY, bestSeries);
+		
+		return new PerturbationKernel(julia, juliaX, juliaY, bestX, bestY, bestLength, bestOffsetX, bestOffsetY,
+				bestSeries, skipped);
+	}
+	
+	
+	/* Work out the series approximation of the difference from the reference orbit,
+	 *   d(n) = A(n) d0 + B(n) d0^2 + C(n) d0^3
+	 * stepping the coefficients along with the reference:
+	 *   A -> 2ZA (+ 1, for the Mandelbrot set),  B -> 2ZB + A^2,  C -> 2ZC + 2AB
+	 * Each step is checked against the probes, which are iterated directly. The series is used
+	 * for as many iterations as it agreed with all of them, and the coefficients at that point 
+	 * are left in seriesOut. Returns the number of iterations skipped. */
+	private int computeSeries(double[] refX, double[] refY, int refLength, int maxIterations,
+			double[] probeX, double[] probeY, double[] seriesOut) {
+		final int first = julia ? 0 : 1;
+		final double tolerance = SERIES_TOLERANCE * SERIES_TOLERANCE;
+		
+		double ax = 1, ay = 0, bx = 0, by = 0, cx = 0, cy = 0;
+		double newax, neway, newbx, newby, newcx, newcy;
+		
+		double[] deltaX = probeX.clone();
+		double[] deltaY = probeY.clone();
+		
+		int n = first;
+		// Leave the pixels at least one iteration to do, and room left in the reference
+		while (n - first < maxIterations - 1 && n + 2 < refLength) {
+			double zx = refX[n];
+			double zy = refY[n];
+			
+			newax = 2 * ((zx * ax) - (zy * ay));
+			neway = 2 * ((zx * ay) + (zy * ax));
+			if (!julia)
+				newax += 1;
+			newbx = 2 * ((zx * bx) - (zy * by)) + ((ax * ax) - (ay * ay));
+			newby = 2 * ((zx * by) + (zy * bx)) + (2 * ax * ay);
+			newcx = 2 * ((zx * cx) - (zy * cy)) + 2 * ((ax * bx) - (ay * by));
+			newcy = 2 * ((zx * cy) + (zy * cx)) + 2 * ((ax * by) + (ay * bx));
+			
+			if (Double.isInfinite(newcx) || Double.isInfinite(newcy) || Double.isNaN(newcx) || Double.isNaN(newcy))
+				break;
+			
+			boolean agrees = true;
+			for (int p = 0; p < probeX.length && agrees; p++) {
+				double dx = deltaX[p];
+				double dy = deltaY[p];
+				double d0x = probeX[p];
+				double d0y = probeY[p];
+				
+				// The probe itself, as a pixel would do it
+				double newdx = 2 * ((zx * dx) - (zy * dy)) + ((dx * dx) - (dy * dy));
+				double newdy = 2 * ((zx * dy) + (zy * dx) + (dx * dy));
+				if (!julia) {
+					newdx += d0x;
+					newdy += d0y;
+				}
+				deltaX[p] = newdx;
+				deltaY[p] = newdy;
+				
+				// Probe escaped or glitched - pixels near it can't skip past here
+				double x = refX[n+1] + newdx;
+				double y = refY[n+1] + newdy;
+				double magnitude = (x*x + y*y);
+				double deltaMagnitude = (newdx*newdx + newdy*newdy);
+				if (magnitude > 4 || magnitude < deltaMagnitude) {
+					agrees = false;
+					break;
+				}
+				
+				// ...and what the series makes of it
+				double d2x = (d0x * d0x) - (d0y * d0y);
+				double d2y = 2 * d0x * d0y;
+				double d3x = (d2x * d0x) - (d2y * d0y);
+				double d3y = (d2x * d0y) + (d2y * d0x);
+				double errorX = (newax * d0x) - (neway * d0y) + (newbx * d2x) - (newby * d2y) + (newcx * d3x) - (newcy * d3y) - newdx;
+				double errorY = (newax * d0y) + (neway * d0x) + (newbx * d2y) + (newby * d2x) + (newcx * d3y) + (newcy * d3x) - newdy;
+				if ((errorX*errorX + errorY*errorY) > tolerance * deltaMagnitude)
+					agrees = false;
+			}
+			if (!agrees)
+				break;
+			
+			ax = newax; ay = neway;
+			bx = newbx; by = newby;
+			cx = newcx; cy = newcy;
+			n++;
+		}
+		
+		seriesOut[0] = ax; seriesOut[1] = ay;
+		seriesOut[2] = bx; seriesOut[3] = by;
+		seriesOut[4] = cx; seriesOut[5] = cy;
+		return n - first;
+	}
+	
+	
+	/* Iterate the reference point at high precision, storing each step as doubles.
+	 * For the Mandelbrot set the orbit starts at Z(0) = 0, so Z(1) = C; for Julia sets Z(0) is the point.
+	 * Returns how many entries were stored - it stops once the orbit passes the escape radius. */
+	private int computeReferenceOrbit(BigDecimal pointX, BigDecimal pointY, int maxIterations, MathContext mc,
+			double[] orbitX, double[] orbitY) {
+		BigDecimal cx, cy, x, y;
+		BigDecimal two = new BigDecimal(2);
+		
+		if (julia) {
+			cx = new BigDecimal(juliaX);
+			cy = new BigDecimal(juliaY);
+			x = pointX;
+			y = pointY;
+		}
+		else {
+			cx = pointX;
+			cy = pointY;
+			x = BigDecimal.ZERO;
+			y = BigDecimal.ZERO;
+		}
+		
+		int length = 0;
+		while (length < orbitX.length) {
+			double dx = x.doubleValue();
+			double dy = y.doubleValue();
+			orbitX[length] = dx;
+			orbitY[length] = dy;
+			length++;
+			
+			if ((dx*dx + dy*dy) > ESCAPE_RADIUS_SQUARED)
+				break;
+			
+			// z^2 + c
+			BigDecimal newx = x.multiply(x, mc).subtract(y.multiply(y, mc), mc).add(cx, mc);
+			BigDecimal newy = two.multiply(x, mc).multiply(y, mc).add(cy, mc);
+			x = newx;
+			y = newy;
+		}
+		
+		return length;
+	}
+	
+	
+	/* ci, cr0 and dcr are offsets from the viewport centre (see usesReferenceCoordinates()) */
+	public int computeRow(double ci, double cr0, double dcr, int count, int maxIterations, int[] iterOut, float[] fractionOut) {
+		final double[] refX = referenceX;
+		final double[] refY = referenceY;
+		final int lastReference = referenceLength - 1;
+		final int skipped = skippedIterations;
+		final double ax = series[0], ay = series[1];
+		final double bx = series[2], by = series[3];
+		final double sx = series[4], sy = series[5];
+		
+		int iterationNr;
+		int m;
+		double dx, dy, newdx, newdy;
+		double x, y, zx, zy;
+		double checkX, checkY;
+		int checkAt;
+		int shortCircuited = 0;
+		
+		final double epsilon = dcr * PERIODICITY_TOLERANCE;
+		
+		// Offsets from the reference point rather than the centre
+		final double dcy = ci - referenceOffsetY;
+		final double dcx0 = cr0 - referenceOffsetX;
+		
+		for (int i = 0; i < count; i++) {
+			final double dcx = dcx0 + ((double)i * dcr);
+			
+			// Mandelbrot: z(1) = c, so start one step along the reference. Julia: z(0) is the point.
+			// Either way, the series takes it straight on past the skipped iterations.
+			m = (julia ? 0 : 1) + skipped;
+			double d2x = (dcx * dcx) - (dcy * dcy);
+			double d2y = 2 * dcx * dcy;
+			double d3x = (d2x * dcx) - (d2y * dcy);
+			double d3y = (d2x * dcy) + (d2y * dcx);
+			dx = (ax * dcx) - (ay * dcy) + (bx * d2x) - (by * d2y) + (sx * d3x) - (sy * d3y);
+			dy = (ax * dcy) + (ay * dcx) + (bx * d2y) + (by * d2x) + (sx * d3y) + (sy * d3x);
+			x = refX[m] + dx;
+			y = refY[m] + dy;
+			
+			// Brent-style cycle detection, on the pixel's own orbit - compare against a saved point, moved on at powers of two
+			checkX = x;
+			checkY = y;
+			checkAt = skipped + 1;
+			
+			for (iterationNr=skipped; iterationNr<maxIterations; iterationNr++) {
+				// Reference has run out (it escaped) - carry on from the start of it instead
+				if (m >= lastReference) {
+					dx = x - refX[0];
+					dy = y - refY[0];
+					m = 0;
+				}
+				
+				zx = refX[m];
+				zy = refY[m];
+				
+				// d -> 2Zd + d^2 (+ dc)
+				newdx = 2 * ((zx * dx) - (zy * dy)) + ((dx * dx) - (dy * dy));
+				newdy = 2 * ((zx * dy) + (zy * dx) + (dx * dy));
+				if (!julia) {
+					newdx += dcx;
+					newdy += dcy;
+				}
+				dx = newdx;
+				dy = newdy;
+				m++;
+				
+				x = refX[m] + dx;
+				y = refY[m] + dy;
+				
+				// Well known result: if distance is >2, escapes to infinity... 
+				// (Carried on out to the escape radius, for the smooth escape value.)
+				double magnitude = (x*x + y*y);
+				if (magnitude > ESCAPE_RADIUS_SQUARED) {
+					break;
+				}
+				
+				// Orbit has come back on itself - it's never going to escape
+				if (Math.abs(x - checkX) < epsilon && Math.abs(y - checkY) < epsilon) {
+					iterationNr = maxIterations;
+					shortCircuited++;
+					break;
+				}
+				
+				if (iterationNr == checkAt) {
+					checkX = x;
+					checkY = y;
+					checkAt = skipped + ((checkAt - skipped) << 1);
+				}
+				
+				// Glitch - the pixel's orbit is nearer zero than its difference from the reference,
+				// so the difference would swamp it. Rebase onto the start of the reference orbit.
+				if (magnitude < ((dx * dx) + (dy * dy))) {
+					dx = x - refX[0];
+					dy = y - refY[0];
+					m = 0;
+				}
+			}
+			
+			iterOut[i] = iterationNr;
+			if (fractionOut != null)
+				fractionOut[i] = (iterationNr < maxIterations ? escapeFraction(x*x + y*y, LN_QUADRATIC) : 0);
+		}
+		
+		return shortCircuited;
+	}
+}
@@ -0,0 +1,57 @@
+package uk.ac.ed.inf.mandelbrotmaps.engine;
+
+/* The numeric precisions a fractal's kernels can come in, cheapest first, 
+ * each with the ln(pixelSize) it stays correct down to. How deep plain doubles go depends 
+ * on the fractal, so that one comes from the fractal's kernel (see FractalKernel.getDoublePrecisionLnPixel()). */
+public enum Precision {
+	FLOAT("float", FractalKernel.FLOAT_PRECISION_LN_PIXEL),
+	DOUBLE("double", FractalKernel.DOUBLE_PRECISION_LN_PIXEL),
+	DOUBLE_DOUBLE("double-double", FractalKernel.DOUBLE_DOUBLE_PRECISION_LN_PIXEL),
+	PERTURBATION("perturbation", PerturbationKernel.MAX_DEPTH_LN_PIXEL);
+	
+	private final String name;
+	private final double limitLnPixel;
+	
+	private Precision(String name, double limitLnPixel) {
+		this.name = name;
+		this.limitLnPixel = limitLnPixel;
+	}
+	
+	/* Deepest ln(pixelSize) this precision is good for, for the fractal whose plain double kernel is base */
+	public double getLimitLnPixel(FractalKernel base) {
+		return (this == DOUBLE) ? base.getDoublePrecisionLnPixel() : limitLnPixel;
+	}
+	
+	/* The cheapest precision that's still correct at this zoom, for the fractal whose plain double kernel is base */
+	public static Precision forLnPixelSize(double lnPixelSize, FractalKernel base) {
+		for (Precision precision : values()) {
+			if (lnPixelSize >= precision.getLimitLnPixel(base))
+				return precision;
+		}
+		return PERTURBATION;
+	}
+	
+	/* This precision's version of a fractal, given its plain double kernel - or null if it hasn't got one */
+	FractalKernel kernelFrom(FractalKernel base) {
+		switch (this) {
+		case FLOAT:
+			return base.getFloatKernel();
+		case DOUBLE:
+			return base;
+		case DOUBLE_DOUBLE:
+			return base.getDoubleDoubleKernel();
+		default:
+			return base.getDeepKernel();
+		}
+	}
+	
+	/* eg. "double (ln pixel size -9 to -17)", for the fractal whose plain double kernel is base */
+	public String describe(FractalKernel base) {
+		String upper = (ordinal() == 0) ? "" : " " + (int)values()[ordinal() - 1].getLimitLnPixel(base) + " to";
+		return name + " (ln pixel size" + upper + " " + (int)getLimitLnPixel(base) + ")";
+	}
+	
+	public String toString() {
+		return name;
+	}
+}
@@ -0,0 +1,15 @@
+package uk.ac.ed.inf.mandelbrotmaps.engine;
+
+/* Lets whoever is driving a render abort it part way through, and hear about its progress. */
+public interface RenderObserver {
+	
+	/* Should the current render be abandoned? */
+	public boolean abortSignalled();
+	
+	/* The rectangle from (left, top) to (right, bottom), exclusive, is finished: it won't change again 
+	 * in this render. Called from the render threads, as soon as each piece is done; it may hang off the frame's edges. */
+	public void finishedRect(int left, int top, int right, int bottom);
+	
+	/* Called every so often while rendering, so what's finished so far can be shown */
+	public void showProgress();
+}
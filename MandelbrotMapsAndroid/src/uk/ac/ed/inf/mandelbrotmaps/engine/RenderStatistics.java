@@ -0,0 +1,116 @@
+package uk.ac.ed.inf.mandelbrotmaps.engine;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/* Running totals for a render, shared by all the threads working on it. */
+public class RenderStatistics {
+	// Samples handed to a kernel
+	private final AtomicLong pixelsComputed = new AtomicLong();
+	
+	// Samples the kernel proved were inside the set without using the whole iteration budget
+	private final AtomicLong pixelsShortCircuited = new AtomicLong();
+	
+	// Samples filled in by solid guessing, without being handed to a kernel
+	private final AtomicLong pixelsGuessed = new AtomicLong();
+	
+	// Samples copied from their mirror image (see MirrorPlan), without being handed to a kernel
+	private final AtomicLong pixelsMirrored = new AtomicLong();
+	
+	// Pixels filled in from the tile cache before the render started
+	private final AtomicLong pixelsCached = new AtomicLong();
+	
+	// Precision the render was done at, and its description for the fractal rendered (see Precision.describe())
+	private volatile Precision precision;
+	private volatile String precisionDescription;
+	
+	// Iterations at the start of every orbit that the kernel skipped (series approximation)
+	private volatile int skippedIterations;
+	
+	public void reset() {
+		pixelsComputed.set(0);
+		pixelsShortCircuited.set(0);
+		pixelsGuessed.set(0);
+		pixelsMirrored.set(0);
+		pixelsCached.set(0);
+		skippedIterations = 0;
+		precision = null;
+		precisionDescription = null;
+	}
+	
+	/* Set once per render, when the kernel is prepared */
+	public void setPrecision(Precision newPrecision, FractalKernel base) {
+		precision = newPrecision;
+		precisionDescription = newPrecision.describe(base);
+	}
+	
+	/* Set once per render, when the kernel is prepared */
+	public void setSkippedIterations(int skipped) {
+		skippedIterations = skipped;
+	}
+	
+	/* Threads keep their own counts while rendering and add them in once at the end */
+	public void add(long computed, long shortCircuited) {
+		pixelsComputed.addAndGet(computed);
+		pixelsShortCircuited.addAndGet(shortCircuited);
+	}
+	
+	public void addGuessed(long guessed) {
+		pixelsGuessed.addAndGet(guessed);
+	}
+	
+	public void addMirrored(long mirrored) {
+		pixelsMirrored.addAndGet(mirrored);
+	}
+	
+	public void addCached(long cached) {
+		pixelsCached.addAndGet(cached);
+	}
+	
+	public long getPixelsComputed() {
+		return pixelsComputed.get();
+	}
+	
+	public long getPixelsShortCircuited() {
+		return pixelsShortCircuited.get();
+	}
+	
+	public long getPixelsGuessed() {
+		return pixelsGuessed.get();
+	}
+	
+	public long getPixelsMirrored() {
+		return pixelsMirrored.get();
+	}
+	
+	public long getPixelsCached() {
+		return pixelsCached.get();
+	}
+	
+	public Precision getPrecision() {
+		return precision;
+	}
+	
+	public int getSkippedIterations() {
+		return skippedIterations;
+	}
+	
+	/* Iterations saved across the whole render by skipping */
+	public long getTotalIterationsSkipped() {
+		return (long)skippedIterations * getPixelsComputed();
+	}
+	
+	public String toString() {
+		String summary = getPixelsShortCircuited() + " of " + getPixelsComputed() + " pixels stopped early";
+		if (getPixelsGuessed() > 0)
+			summary += ", " + getPixelsGuessed() + " guessed";
+		if (getPixelsMirrored() > 0)
+			summary += ", " + getPixelsMirrored() + " mirrored";
+		if (getPixelsCached() > 0)
+			summary += ", " + getPixelsCached() + " from cache";
+		if (skippedIterations > 0)
+			summary += ", first " + skippedIterations + " iterations skipped";
+		if (precisionDescription != null)
+			summary += ", in " + precisionDescription;
+		return summary;
+	}
+}
@@ -0,0 +1,14 @@
+package uk.ac.ed.inf.mandelbrotmaps.engine;
+
+/* Whether a block render may fill in samples from the coarser level before it instead of iterating them
+ * (see FractalRenderer.computePixels()). */
+public enum SolidGuessing {
+	// Iterate every sample
+	OFF,
+	
+	// Fill any sample inside a coarse cell whose corners all agree
+	ON,
+	
+	// As ON, but iterate each such cell's centre first, and only fill the cell if that agrees too
+	VERIFIED
+}
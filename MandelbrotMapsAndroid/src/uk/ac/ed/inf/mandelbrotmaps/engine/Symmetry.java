@@ -0,0 +1,14 @@
+package uk.ac.ed.inf.mandelbrotmaps.engine;
+
+/* A symmetry of the whole fractal that a render can use to copy pixels instead of 
+ * iterating them (see MirrorPlan). */
+public enum Symmetry {
+	// Nothing to exploit
+	NONE,
+	
+	// c and its complex conjugate take the same number of iterations (the Mandelbrot sets)
+	REAL_AXIS,
+	
+	// z and -z take the same number of iterations (quadratic Julia sets)
+	ORIGIN
+}
@@ -0,0 +1,461 @@
+package uk.ac.ed.inf.mandelbrotmaps.engine;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+/* Iteration counts (and escape fractions) from finished renders, kept in square tiles so that
+ * going back somewhere already seen - panning back, returning home, reloading a location -
+ * doesn't have to compute it again. Tiles sit on a grid of whole pixels measured from the
+ * viewport's origin, so they line up again after a pan by any whole number of pixels.
+ * Least recently used tiles are dropped once the cache grows past its byte budget.
+ * Behind it there can be a DiskTileStore, which keeps tiles from one run of the app to the next.
+ * Only load() and store() touch the disk - opening the store included, as that can mean replaying
+ * its journal and compacting it - and they never hold the cache's lock while they do, so
+ * restore() - which only looks in memory - is quick enough for the UI thread.
+ * Shared by every view and every render thread. */
+public class TileCache {
+	
+	// Width and height of a tile, in pixels
+	static final int TILE_SIZE = 64;
+	
+	// Tile positions are worked out in fractions of a pixel this fine, so rounding error doesn't
+	// stop a viewport lining up with the grid it was stored on
+	private static final long PHASE_STEPS = 1 << 16;
+	
+	// Zooms end on a ladder of pixel sizes, a factor of root 2 apart, so going back to a zoom
+	// lands on the same level again (see snapPixelSize())
+	private static final int LADDER_STEPS_PER_DOUBLING = 2;
+	
+	// How far, relative to a rung, a pixel size can be from it and still be taken as the rung -
+	// a graph area's width divided by the screen's doesn't always come out to exactly the rung
+	private static final double LADDER_TOLERANCE = 1e-12;
+	
+	// What a tile costs: its iteration counts and fractions, and roughly what the map spends on it
+	private static final long TILE_BYTES = (TILE_SIZE * TILE_SIZE * 8) + 128;
+	
+	private final long byteBudget;
+	private long bytesUsed = 0;
+	
+	// In access order, so the first entry is always the least recently used
+	private final LinkedHashMap<TileKey, Tile> tiles = new LinkedHashMap<TileKey, Tile>(16, 0.75f, true);
+	
+	// Where tiles go to outlive the process (may be null). Used under diskLock, not the cache's own lock.
+	private volatile DiskTileStore disk;
+	private final Object diskLock = new Object();
+	
+	// The disk store openDiskStore() last asked for, until the next load() or store() opens it
+	private final AtomicReference<DiskStoreRequest> pendingDisk = new AtomicReference<DiskStoreRequest>();
+	
+	public TileCache(long byteBudget) {
+		this.byteBudget = byteBudget;
+	}
+	
+	/* Put the store kept in directory behind the cache, bounded to maxBytes - or, if maxBytes is 0, 
+	 * delete it and carry on with just memory. Whatever store was there is closed. This only asks for it:
+	 * the files are touched by the next load() or store(), on a render thread, so it's fine to call from the
+	 * UI thread. Until then the cache keeps using the store it had (if any). */
+	public void openDiskStore(File directory, long maxBytes) {
+		pendingDisk.set(new DiskStoreRequest(directory, maxBytes));
+	}
+	
+	public synchronized long getBytesUsed() {
+		return bytesUsed;
+	}
+	
+	public synchronized void clear() {
+		tiles.clear();
+		bytesUsed = 0;
+	}
+	
+	
+	/* Keep every pixel of the viewport that has an iteration count, writing any tiles that changed
+	 * through to the disk store. fractions may be null, in which case they're kept as 0. */
+	public void store(Level level, Viewport viewport, int[] iterations, float[] fractions) {
+		// Copies of the tiles that changed, to write out once the cache is unlocked
+		List<String> changedKeys = new ArrayList<String>();
+		List<Tile> changedTiles = new ArrayList<Tile>();
+		
+		// Open any store asked for first, so the tiles that change now are written to it
+		if (pendingDisk.get() != null) {
+			synchronized (diskLock) {
+				openPendingDiskStore();
+			}
+		}
+		
+		synchronized (this) {
+			storeInMemory(level, viewport, iterations, fractions, changedKeys, changedTiles);
+			trim();
+		}
+		
+		if (changedTiles.isEmpty())
+			return;
+		
+		synchronized (diskLock) {
+			if (disk == null)
+				return;
+			
+			try {
+				for (int i = 0; i < changedTiles.size(); i++)
+					disk.write(changedKeys.get(i), changedTiles.get(i).iterations, changedTiles.get(i).fractions);
+				disk.flush();
+			}
+			catch (IOException ioe) {
+				dropDiskStore();
+			}
+		}
+	}
+	
+	/* The in-memory half of store(), adding a copy of each tile that changed (and its disk key) to the lists */
+	private void storeInMemory(Level level, Viewport viewport, int[] iterations, float[] fractions, 
+			List<String> changedKeys, List<Tile> changedTiles) {
+		final int width = viewport.getWidth();
+		final int height = viewport.getHeight();
+		
+		for (long tileY = floorDiv(level.row, TILE_SIZE); tileY <= floorDiv(level.row + height - 1, TILE_SIZE); tileY++) {
+			for (long tileX = floorDiv(level.column, TILE_SIZE); tileX <= floorDiv(level.column + width - 1, TILE_SIZE); tileX++) {
+				TileKey key = new TileKey(level, tileX, tileY);
+				Tile tile = tiles.get(key);
+				if (tile == null) {
+					tile = new Tile();
+					tiles.put(key, tile);
+					bytesUsed += TILE_BYTES;
+				}
+				
+				// A render has been over it now, so anything that came from the disk has been checked
+				tile.verified = true;
+				
+				// The part of the tile on screen
+				final int x0 = (int)Math.max(0, (tileX * TILE_SIZE) - level.column);
+				final int x1 = (int)Math.min(width, ((tileX + 1) * TILE_SIZE) - level.column);
+				final int y0 = (int)Math.max(0, (tileY * TILE_SIZE) - level.row);
+				final int y1 = (int)Math.min(height, ((tileY + 1) * TILE_SIZE) - level.row);
+				
+				for (int y = y0; y < y1; y++) {
+					int tileIndex = (int)(((y + level.row) - (tileY * TILE_SIZE)) * TILE_SIZE + ((x0 + level.column) - (tileX * TILE_SIZE)));
+					for (int index = (y * width) + x0; index < (y * width) + x1; index++, tileIndex++) {
+						if (iterations[index] == FractalRenderer.NOT_ITERATED)
+							continue;
+						
+						final float pointFraction = (fractions != null ? fractions[index] : 0);
+						if (tile.iterations[tileIndex] != iterations[index] || tile.fractions[tileIndex] != pointFraction) {
+							tile.iterations[tileIndex] = iterations[index];
+							tile.fractions[tileIndex] = pointFraction;
+							tile.changed = true;
+						}
+					}
+				}
+				
+				if (tile.changed && disk != null) {
+					changedKeys.add(key.persistentKey());
+					changedTiles.add(tile.copy());
+					tile.changed = false;
+				}
+			}
+		}
+	}
+	
+	/* Bring any tiles of the viewport that are only in the disk store into memory, for restore() to find.
+	 * Reads files, so it's for render threads, not the UI thread. Returns how many tiles were read. */
+	public int load(Level level, Viewport viewport) {
+		final int width = viewport.getWidth();
+		final int height = viewport.getHeight();
+		int loaded = 0;
+		
+		synchronized (diskLock) {
+			openPendingDiskStore();
+			if (disk == null)
+				return 0;
+			
+			try {
+				for (long tileY = floorDiv(level.row, TILE_SIZE); tileY <= floorDiv(level.row + height - 1, TILE_SIZE); tileY++) {
+					for (long tileX = floorDiv(level.column, TILE_SIZE); tileX <= floorDiv(level.column + width - 1, TILE_SIZE); tileX++) {
+						TileKey key = new TileKey(level, tileX, tileY);
+						synchronized (this) {
+							if (tiles.containsKey(key))
+								continue;
+						}
+						
+						Tile tile = new Tile();
+						if (!disk.read(key.persistentKey(), tile.iterations, tile.fractions))
+							continue;
+						tile.verified = false;
+						
+						synchronized (this) {
+							if (!tiles.containsKey(key)) {
+								tiles.put(key, tile);
+								bytesUsed += TILE_BYTES;
+								loaded++;
+							}
+						}
+					}
+				}
+				disk.flush();
+			}
+			catch (IOException ioe) {
+				dropDiskStore();
+			}
+		}
+		
+		synchronized (this) {
+			trim();
+		}
+		return loaded;
+	}
+	
+	
+	/* Fill in every pixel of the viewport the cache has, that isn't exact already, coloured from
+	 * the palette (smoothly, if smooth is set - see FractalRenderer.colourPoint()) and marked exact
+	 * in pixelSizes so renders skip it. Pixels of tiles read from the disk store that no render has
+	 * been over yet are marked FractalRenderer.UNVERIFIED_PIXEL_SIZE instead, so they're shown straight
+	 * away but the detailed render still checks them. Only tiles already in memory are used (see load()).
+	 * fractions may be null. Returns how many pixels were filled in. */
+	public synchronized int restore(Level level, Viewport viewport, int[] palette, boolean smooth,
+			int[] frame, int[] iterations, float[] fractions, byte[] pixelSizes) {
+		final int width = viewport.getWidth();
+		final int height = viewport.getHeight();
+		int restored = 0;
+		
+		for (long tileY = floorDiv(level.row, TILE_SIZE); tileY <= floorDiv(level.row + height - 1, TILE_SIZE); tileY++) {
+			for (long tileX = floorDiv(level.column, TILE_SIZE); tileX <= floorDiv(level.column + width - 1, TILE_SIZE); tileX++) {
+				Tile tile = tiles.get(new TileKey(level, tileX, tileY));
+				if (tile == null)
+					continue;
+				
+				final byte pixelSize = (byte)(tile.verified ? FractalRenderer.DEFAULT_PIXEL_SIZE : FractalRenderer.UNVERIFIED_PIXEL_SIZE);
+				
+				final int x0 = (int)Math.max(0, (tileX * TILE_SIZE) - level.column);
+				final int x1 = (int)Math.min(width, ((tileX + 1) * TILE_SIZE) - level.column);
+				final int y0 = (int)Math.max(0, (tileY * TILE_SIZE) - level.row);
+				final int y1 = (int)Math.min(height, ((tileY + 1) * TILE_SIZE) - level.row);
+				
+				for (int y = y0; y < y1; y++) {
+					int tileIndex = (int)(((y + level.row) - (tileY * TILE_SIZE)) * TILE_SIZE + ((x0 + level.column) - (tileX * TILE_SIZE)));
+					for (int index = (y * width) + x0; index < (y * width) + x1; index++, tileIndex++) {
+						final int pointIterations = tile.iterations[tileIndex];
+						if (pointIterations == FractalRenderer.NOT_ITERATED || pixelSizes[index] <= pixelSize)
+							continue;
+						
+						final float pointFraction = tile.fractions[tileIndex];
+						frame[index] = FractalRenderer.colourPoint(palette, level.maxIterations, pointIterations, (smooth ? pointFraction : 0));
+						iterations[index] = pointIterations;
+						if (fractions != null)
+							fractions[index] = pointFraction;
+						pixelSizes[index] = pixelSize;
+						restored++;
+					}
+				}
+			}
+		}
+		
+		return restored;
+	}
+	
+	
+	/* Drop the least recently used tiles until it's back in budget */
+	private void trim() {
+		Iterator<Tile> eldest = tiles.values().iterator();
+		while (bytesUsed > byteBudget && eldest.hasNext()) {
+			eldest.next();
+			eldest.remove();
+			bytesUsed -= TILE_BYTES;
+		}
+	}
+	
+	/* Swap in the store openDiskStore() last asked for, if there is one (called holding diskLock) */
+	private void openPendingDiskStore() {
+		DiskStoreRequest request = pendingDisk.getAndSet(null);
+		if (request == null)
+			return;
+		
+		if (disk != null) {
+			disk.close();
+			disk = null;
+		}
+		
+		if (request.maxBytes == 0) {
+			DiskTileStore.delete(request.directory);
+			return;
+		}
+		
+		try {
+			disk = new DiskTileStore(request.directory, request.maxBytes);
+		}
+		catch (IOException ioe) {
+			// Carry on with just memory
+		}
+	}
+	
+	/* A disk store that can't be read or written is no use - carry on with just memory (called holding diskLock) */
+	private void dropDiskStore() {
+		disk.close();
+		disk = null;
+	}
+	
+	
+	/* The pixel size on the scale ladder nearest to pixelSize. Levels are found again by exact pixel size,
+	 * so a zoom only gets tiles back if it comes back to exactly the size they were stored at: views
+	 * finish their zooms on a rung of the ladder. StrictMath, so the rungs are the same in every run
+	 * of the app for the disk store. */
+	public static double snapPixelSize(double pixelSize) {
+		long rung = Math.round(LADDER_STEPS_PER_DOUBLING * Math.log(pixelSize) / Math.log(2));
+		return StrictMath.pow(2, (double)rung / LADDER_STEPS_PER_DOUBLING);
+	}
+	
+	/* Rounds towards minus infinity, unlike / */
+	private static long floorDiv(long value, long divisor) {
+		long quotient = value / divisor;
+		return (value % divisor < 0) ? quotient - 1 : quotient;
+	}
+	
+	
+	/* Everything about a render that its tiles' contents depend on, and where its top-left pixel
+	 * sits on that level's grid. Renders at the same level share tiles. That includes how the render
+	 * was made: guessed and subdivided renders can fill in samples wrongly, so their tiles are only
+	 * given back to renders made the same way, never to ones that would iterate every sample. */
+	public static final class Level {
+		private final Class<?> fractal;
+		private final double juliaX;
+		private final double juliaY;
+		private final double pixelSize;
+		private final BigDecimal originX;
+		private final BigDecimal originY;
+		private final long phaseX;
+		private final long phaseY;
+		private final int maxIterations;
+		private final Precision precision;
+		private final SolidGuessing guessing;
+		private final boolean subdivided;
+		
+		// Grid position of the viewport's top-left pixel
+		private final long column;
+		private final long row;
+		
+		/* kernel is the fractal's plain (double precision) kernel */
+		public Level(FractalKernel kernel, Viewport viewport, int maxIterations, Precision precision, SolidGuessing guessing, boolean subdivided) {
+			fractal = kernel.getClass();
+			
+			// Julia sets with different parameters are different fractals
+			if (kernel instanceof JuliaKernel) {
+				juliaX = ((JuliaKernel)kernel).getJuliaX();
+				juliaY = ((JuliaKernel)kernel).getJuliaY();
+			}
+			else {
+				juliaX = 0;
+				juliaY = 0;
+			}
+			
+			// Near enough a rung of the scale ladder is on it
+			final double rungPixelSize = snapPixelSize(viewport.getPixelSize());
+			pixelSize = (Math.abs(viewport.getPixelSize() - rungPixelSize) <= rungPixelSize * LADDER_TOLERANCE ? 
+					rungPixelSize : viewport.getPixelSize());
+			originX = viewport.getOriginX();
+			originY = viewport.getOriginY();
+			this.maxIterations = maxIterations;
+			this.precision = precision;
+			this.subdivided = subdivided;
+			
+			// Subdivided renders don't guess
+			this.guessing = (subdivided ? SolidGuessing.OFF : guessing);
+			
+			// Columns count rightwards from the origin, rows downwards
+			long left = Math.round((viewport.getXMin() / pixelSize) * PHASE_STEPS);
+			long top = Math.round((-viewport.getYMax() / pixelSize) * PHASE_STEPS);
+			column = floorDiv(left, PHASE_STEPS);
+			row = floorDiv(top, PHASE_STEPS);
+			phaseX = left - (column * PHASE_STEPS);
+			phaseY = top - (row * PHASE_STEPS);
+		}
+		
+		public boolean equals(Object other) {
+			if (!(other instanceof Level))
+				return false;
+			
+			Level l = (Level)other;
+			return fractal == l.fractal && juliaX == l.juliaX && juliaY == l.juliaY && pixelSize == l.pixelSize &&
+					originX.equals(l.originX) && originY.equals(l.originY) && phaseX == l.phaseX && phaseY == l.phaseY &&
+					maxIterations == l.maxIterations && precision == l.precision && guessing == l.guessing && subdivided == l.subdivided;
+		}
+		
+		public int hashCode() {
+			long bits = Double.doubleToLongBits(pixelSize) ^ (31 * Double.doubleToLongBits(juliaX)) ^ (961 * Double.doubleToLongBits(juliaY)) ^
+					(phaseX << 16) ^ phaseY;
+			return (int)(bits ^ (bits >>> 32)) ^ (fractal.hashCode() * 31 + maxIterations) ^ originX.hashCode() ^ originY.hashCode();
+		}
+	}
+	
+	
+	/* A tile's place in the cache: its level, and which tile of that level's grid it is */
+	private static final class TileKey {
+		private final Level level;
+		private final long tileX;
+		private final long tileY;
+		
+		TileKey(Level level, long tileX, long tileY) {
+			this.level = level;
+			this.tileX = tileX;
+			this.tileY = tileY;
+		}
+		
+		public boolean equals(Object other) {
+			if (!(other instanceof TileKey))
+				return false;
+			
+			TileKey k = (TileKey)other;
+			return tileX == k.tileX && tileY == k.tileY && level.equals(k.level);
+		}
+		
+		public int hashCode() {
+			long bits = (tileX * 31) ^ (tileY << 20);
+			return (int)(bits ^ (bits >>> 32)) ^ level.hashCode();
+		}
+		
+		/* The key as a string, for the disk store - the same for the same tile in any run of the app */
+		String persistentKey() {
+			return level.fractal.getName() + ' ' + Double.doubleToLongBits(level.juliaX) + ' ' + Double.doubleToLongBits(level.juliaY) + ' ' +
+					Double.doubleToLongBits(level.pixelSize) + ' ' + level.originX + ' ' + level.originY + ' ' + level.phaseX + ' ' + level.phaseY + ' ' +
+					level.maxIterations + ' ' + level.precision.name() + ' ' + level.guessing.name() + ' ' + level.subdivided + ' ' + tileX + ' ' + tileY;
+		}
+	}
+	
+	
+	/* What openDiskStore() was asked for */
+	private static final class DiskStoreRequest {
+		final File directory;
+		final long maxBytes;
+		
+		DiskStoreRequest(File directory, long maxBytes) {
+			this.directory = directory;
+			this.maxBytes = maxBytes;
+		}
+	}
+	
+	
+	private static final class Tile {
+		final int[] iterations = new int[TILE_SIZE * TILE_SIZE];
+		final float[] fractions = new float[TILE_SIZE * TILE_SIZE];
+		
+		// Has a render been over it since it was read from the disk store?
+		boolean verified = true;
+		
+		// Does the disk store have an older version of it?
+		boolean changed = false;
+		
+		Tile() {
+			Arrays.fill(iterations, FractalRenderer.NOT_ITERATED);
+		}
+		
+		Tile copy() {
+			Tile tile = new Tile();
+			System.arraycopy(iterations, 0, tile.iterations, 0, iterations.length);
+			System.arraycopy(fractions, 0, tile.fractions, 0, fractions.length);
+			return tile;
+		}
+	}
+}
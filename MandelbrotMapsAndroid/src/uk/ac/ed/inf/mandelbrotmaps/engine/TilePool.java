@@ -0,0 +1,78 @@
+package uk.ac.ed.inf.mandelbrotmaps.engine;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/* The tiles making up one render, shared by every thread working on it.
+ * Threads take the next tile whenever they finish one, so a thread stuck on an expensive 
+ * tile near the edge of the set doesn't leave the others idle with nothing left to do.
+ * Tiles are handed out starting at the middle row of tiles and working outwards (the middle
+ * is usually what's being looked at), left to right along each row. */
+public class TilePool {
+	
+	private final int imgWidth;
+	private final int imgHeight;
+	private final int tileWidth;
+	private final int tileHeight;
+	private final int tilesAcross;
+	
+	// Tile rows, in the order they're handed out
+	private final int[] tileRowOrder;
+	
+	private final AtomicInteger nextTile = new AtomicInteger();
+	
+	public TilePool(int imgWidth, int imgHeight, int tileWidth, int tileHeight) {
+		this.imgWidth = imgWidth;
+		this.imgHeight = imgHeight;
+		this.tileWidth = tileWidth;
+		this.tileHeight = tileHeight;
+		
+		tilesAcross = (imgWidth + tileWidth - 1) / tileWidth;
+		int tilesDown = (imgHeight + tileHeight - 1) / tileHeight;
+		
+		// Middle, below, above, further below...
+		tileRowOrder = new int[tilesDown];
+		int middleRow = tilesDown / 2;
+		int filled = 0;
+		for (int offset = 0; filled < tilesDown; offset++) {
+			if (middleRow + offset < tilesDown)
+				tileRowOrder[filled++] = middleRow + offset;
+			if (offset > 0 && middleRow - offset >= 0)
+				tileRowOrder[filled++] = middleRow - offset;
+		}
+	}
+	
+	/* Take the next tile, or return -1 if they've all been taken */
+	public int takeTile() {
+		int tile = nextTile.getAndIncrement();
+		return (tile < getTileCount()) ? tile : -1;
+	}
+	
+	/* Are there any tiles nobody's taken yet? */
+	public boolean hasTilesLeft() {
+		return nextTile.get() < getTileCount();
+	}
+	
+	public int getTileCount() {
+		return tilesAcross * tileRowOrder.length;
+	}
+	
+	/* Left edge of the tile (inclusive) */
+	public int getLeft(int tile) {
+		return (tile % tilesAcross) * tileWidth;
+	}
+	
+	/* Top edge of the tile (inclusive) */
+	public int getTop(int tile) {
+		return tileRowOrder[tile / tilesAcross] * tileHeight;
+	}
+	
+	/* Right edge of the tile (exclusive) - may be short at the edge of the image */
+	public int getRight(int tile) {
+		return Math.min(getLeft(tile) + tileWidth, imgWidth);
+	}
+	
+	/* Bottom edge of the tile (exclusive) - may be short at the edge of the image */
+	public int getBottom(int tile) {
+		return Math.min(getTop(tile) + tileHeight, imgHeight);
+	}
+}
@@ -0,0 +1,125 @@
+package uk.ac.ed.inf.mandelbrotmaps.engine;
+
+import java.math.BigDecimal;
+
+/* An immutable view onto the complex plane - where the top-left pixel sits,
+ * how big each pixel is, and how many pixels there are.
+ * For deep zooms the position is split in two: an exact origin, and a double-precision
+ * offset from it (which is all that's needed to tell neighbouring pixels apart). */
+public final class Viewport {
+	private final BigDecimal originX;
+	private final BigDecimal originY;
+	private final double xMin;
+	private final double yMax;
+	private final double pixelSize;
+	private final int width;
+	private final int height;
+	
+	// The origin as doubles, for kernels that work in absolute coordinates
+	private final double originXDouble;
+	private final double originYDouble;
+	
+	public Viewport(double xMin, double yMax, double pixelSize, int width, int height) {
+		this(BigDecimal.ZERO, BigDecimal.ZERO, xMin, yMax, pixelSize, width, height);
+	}
+	
+	public Viewport(BigDecimal originX, BigDecimal originY, double xMin, double yMax, double pixelSize, int width, int height) {
+		this.originX = originX;
+		this.originY = originY;
+		this.xMin = xMin;
+		this.yMax = yMax;
+		this.pixelSize = pixelSize;
+		this.width = width;
+		this.height = height;
+		
+		originXDouble = originX.doubleValue();
+		originYDouble = originY.doubleValue();
+	}
+	
+	/* Build a viewport from a graph area, stored as double[] {x_min, y_max, width} */
+	public static Viewport fromGraphArea(double[] graphArea, int width, int height) {
+		return new Viewport(graphArea[0], graphArea[1], graphArea[2] / (double)width, width, height);
+	}
+	
+	/* As above, with the graph area measured from an exact origin */
+	public static Viewport fromGraphArea(BigDecimal originX, BigDecimal originY, double[] graphArea, int width, int height) {
+		return new Viewport(originX, originY, graphArea[0], graphArea[1], graphArea[2] / (double)width, width, height);
+	}
+	
+	public BigDecimal getOriginX() {
+		return originX;
+	}
+	
+	public BigDecimal getOriginY() {
+		return originY;
+	}
+	
+	/* Left edge, relative to the origin */
+	public double getXMin() {
+		return xMin;
+	}
+	
+	/* Top edge, relative to the origin */
+	public double getYMax() {
+		return yMax;
+	}
+	
+	public double getPixelSize() {
+		return pixelSize;
+	}
+	
+	public double getLnPixelSize() {
+		return Math.log(pixelSize);
+	}
+	
+	public int getWidth() {
+		return width;
+	}
+	
+	public int getHeight() {
+		return height;
+	}
+	
+	/* Real part of the point at the left edge of this pixel column */
+	public double getX(int xPixel) {
+		return originXDouble + xMin + ((double)xPixel * pixelSize);
+	}
+	
+	/* Imaginary part of the point at the top edge of this pixel row */
+	public double getY(int yPixel) {
+		return originYDouble + yMax - ((double)yPixel * pixelSize);
+	}
+	
+	/* Exact position of the centre of the viewport, used as the reference point for deep zooms */
+	public BigDecimal getCentreX() {
+		return originX.add(new BigDecimal(xMin)).add(new BigDecimal((double)(width/2) * pixelSize));
+	}
+	
+	public BigDecimal getCentreY() {
+		return originY.add(new BigDecimal(yMax)).subtract(new BigDecimal((double)(height/2) * pixelSize));
+	}
+	
+	/* Real offset of this pixel column from the centre */
+	public double getDeltaX(int xPixel) {
+		return (double)(xPixel - width/2) * pixelSize;
+	}
+	
+	/* Imaginary offset of this pixel row from the centre */
+	public double getDeltaY(int yPixel) {
+		return -(double)(yPixel - height/2) * pixelSize;
+	}
+	
+	public boolean equals(Object other) {
+		if (!(other instanceof Viewport))
+			return false;
+		
+		Viewport v = (Viewport)other;
+		return originX.equals(v.originX) && originY.equals(v.originY) && xMin == v.xMin && yMax == v.yMax &&
+				pixelSize == v.pixelSize && width == v.width && height == v.height;
+	}
+	
+	public int hashCode() {
+		long bits = Double.doubleToLongBits(xMin) ^ (31 * Double.doubleToLongBits(yMax)) ^ (961 * Double.doubleToLongBits(pixelSize));
+		return (int)(bits ^ (bits >>> 32)) ^ (width * 31 + height);
+	}
+}